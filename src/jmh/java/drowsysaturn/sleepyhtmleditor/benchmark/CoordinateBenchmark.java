@@ -0,0 +1,69 @@
+package drowsysaturn.sleepyhtmleditor.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import drowsysaturn.sleepyhtmleditor.editor.CoordinateCoder;
+import drowsysaturn.sleepyhtmleditor.editor.CoordinateCodingException;
+import drowsysaturn.sleepyhtmleditor.editor.ScreenCoordinateSingle;
+
+/**
+ * Measures CoordinateCoder.decode and CoordinateCoder.encode, including the variants which write into existing arrays and builders.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoordinateBenchmark {
+    private final String[] encoded = {"50% + -200px", "0% + 0px", "12.5% + 16px", "-33.333% + 7px", "100% + -1px"};
+
+    private final ScreenCoordinateSingle[] decoded = {
+        new ScreenCoordinateSingle(0.5, -200), new ScreenCoordinateSingle(0, 0), new ScreenCoordinateSingle(0.125, 16),
+        new ScreenCoordinateSingle(-0.33333, 7), new ScreenCoordinateSingle(1, -1)
+    };
+
+    private final double[] percents = new double[encoded.length];
+
+    private final int[] pixels = new int[encoded.length];
+
+    private final StringBuilder builder = new StringBuilder();
+
+    private int index = 0;
+
+    @Benchmark
+    public ScreenCoordinateSingle decode() throws CoordinateCodingException {
+        index = (index + 1)%encoded.length;
+        return CoordinateCoder.decode(encoded[index]);
+    }
+
+    @Benchmark
+    public int[] decodeAll() throws CoordinateCodingException {
+        CoordinateCoder.decodeAll(encoded, percents, pixels);
+        return pixels;
+    }
+
+    @Benchmark
+    public String encode() {
+        index = (index + 1)%decoded.length;
+        return CoordinateCoder.encode(decoded[index]);
+    }
+
+    @Benchmark
+    public StringBuilder encodeIntoBuilder() {
+        index = (index + 1)%decoded.length;
+        builder.setLength(0);
+        CoordinateCoder.encode(decoded[index].getPercent(), decoded[index].getPixels(), builder);
+        return builder;
+    }
+}
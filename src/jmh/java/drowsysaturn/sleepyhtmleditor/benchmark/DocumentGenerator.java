@@ -0,0 +1,118 @@
+package drowsysaturn.sleepyhtmleditor.benchmark;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Random;
+
+import drowsysaturn.sleepyhtmleditor.editor.BackgroundStyle;
+import drowsysaturn.sleepyhtmleditor.editor.DocumentElement;
+import drowsysaturn.sleepyhtmleditor.editor.DocumentLense;
+import drowsysaturn.sleepyhtmleditor.editor.ScreenCoordinate;
+import drowsysaturn.sleepyhtmleditor.editor.StandardPanel;
+import drowsysaturn.sleepyhtmleditor.editor.TextPanel;
+
+/**
+ * Builds synthetic documents for the benchmarks. The same arguments always give the same document.
+ * Every fifth element is a TextPanel, and styles are picked from a small palette so exported
+ * documents share styles the way real pages do.
+ *
+ * Example usage:
+ * <code>
+ * DocumentLense lense = DocumentGenerator.generate(1000, DocumentGenerator.BALANCED);
+ * </code>
+ */
+public class DocumentGenerator {
+    /**
+     * Every element is a child of the root.
+     */
+    public static final String FLAT = "flat";
+
+    /**
+     * Every element has up to eight children.
+     */
+    public static final String BALANCED = "balanced";
+
+    /**
+     * Elements form chains 32 elements deep below the root.
+     */
+    public static final String DEEP = "deep";
+
+    private static final int BALANCED_FAN_OUT = 8;
+
+    private static final int DEEP_CHAIN_LENGTH = 32;
+
+    private static final long SEED = 42;
+
+    private static final Color[] PALETTE = {
+        new Color(255, 255, 255), new Color(30, 30, 30), new Color(200, 60, 60), new Color(60, 160, 90),
+        new Color(40, 90, 200, 200), new Color(240, 200, 40), new Color(120, 120, 120, 128), new Color(0, 150, 160)
+    };
+
+    private static final String WORDS = "lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod tempor";
+
+    /**
+     * Generates a document with the given number of elements below the root.
+     * @throws IllegalArgumentException If the shape is not FLAT, BALANCED, or DEEP.
+     */
+    public static DocumentLense generate(int elementCount, String shape) {
+        StandardPanel root = new StandardPanel(new ScreenCoordinate(0, 0, 0, 0), new ScreenCoordinate(0, 1, 0, 1));
+        root.setBackgroundColor(Color.WHITE);
+        root.setBackgroundStyle(BackgroundStyle.SOLID_COLOR);
+        Random random = new Random(SEED);
+        ArrayList<DocumentElement> elements = new ArrayList<DocumentElement>(elementCount + 1);
+        elements.add(root);
+        for (int i = 0; i < elementCount; i++) {
+            DocumentElement parent;
+            if (FLAT.equals(shape)) {
+                parent = root;
+            } else if (BALANCED.equals(shape)) {
+                parent = elements.get(i/BALANCED_FAN_OUT);
+            } else if (DEEP.equals(shape)) {
+                parent = i%DEEP_CHAIN_LENGTH == 0 ? root : elements.get(i);
+            } else {
+                throw new IllegalArgumentException("Unknown document shape " + shape);
+            }
+            DocumentElement element = createElement(random, i, parent == root);
+            parent.addChild(element);
+            elements.add(element);
+        }
+        return new DocumentLense(root);
+    }
+
+    /**
+     * Creates a panel filling a random part of its parent. Children of the root are kept small
+     * so that large documents do not cover every pixel many times.
+     */
+    private static StandardPanel createElement(Random random, int index, boolean topLevel) {
+        double width = topLevel ? 0.02 + random.nextDouble()*0.1 : 0.5 + random.nextDouble()*0.4;
+        double height = topLevel ? 0.02 + random.nextDouble()*0.1 : 0.5 + random.nextDouble()*0.4;
+        ScreenCoordinate position = new ScreenCoordinate(random.nextInt(8), random.nextDouble()*(1 - width), 
+            random.nextInt(8), random.nextDouble()*(1 - height));
+        ScreenCoordinate size = new ScreenCoordinate(-random.nextInt(8), width, -random.nextInt(8), height);
+        StandardPanel panel;
+        if (index%5 == 0) {
+            TextPanel textPanel = new TextPanel(position, size, WORDS.substring(0, 10 + random.nextInt(WORDS.length() - 10)));
+            textPanel.setFontSize(12 + 2*random.nextInt(3));
+            panel = textPanel;
+        } else {
+            panel = new StandardPanel(position, size);
+        }
+        panel.setBackgroundColor(PALETTE[random.nextInt(PALETTE.length)]);
+        panel.setBackgroundStyle(BackgroundStyle.SOLID_COLOR);
+        return panel;
+    }
+
+    /**
+     * Creates an opaque image with a gradient, for benchmarking background images.
+     */
+    public static BufferedImage createImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x*255/width) << 16 | (y*255/height) << 8 | 128);
+            }
+        }
+        return image;
+    }
+}
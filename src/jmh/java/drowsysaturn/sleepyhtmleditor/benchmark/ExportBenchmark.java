@@ -0,0 +1,70 @@
+package drowsysaturn.sleepyhtmleditor.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import drowsysaturn.sleepyhtmleditor.html.ExportReport;
+import drowsysaturn.sleepyhtmleditor.html.HtmlExporter;
+
+/**
+ * Measures HtmlExporter.write to a channel which discards everything, so no disk time is included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExportBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int elements;
+
+    @Param({DocumentGenerator.FLAT, DocumentGenerator.BALANCED})
+    public String shape;
+
+    private HtmlExporter exporter;
+
+    private final WritableByteChannel nullChannel = new NullChannel();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        exporter = new HtmlExporter(DocumentGenerator.generate(elements, shape), "Benchmark");
+    }
+
+    @Benchmark
+    public ExportReport write() throws IOException {
+        return exporter.write(nullChannel);
+    }
+
+    private static class NullChannel implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer source) {
+            int written = source.remaining();
+            source.position(source.limit());
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() { }
+    }
+}
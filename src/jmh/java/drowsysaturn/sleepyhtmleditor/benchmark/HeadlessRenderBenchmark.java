@@ -0,0 +1,70 @@
+package drowsysaturn.sleepyhtmleditor.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import drowsysaturn.sleepyhtmleditor.editor.DocumentLense;
+import drowsysaturn.sleepyhtmleditor.editor.HeadlessRenderer;
+import drowsysaturn.sleepyhtmleditor.editor.RenderSnapshot;
+
+/**
+ * Measures rendering a 1920x1080 document with a HeadlessRenderer at full size and as a
+ * thumbnail, with pools of different sizes. A threads value of 0 uses one thread per core.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeadlessRenderBenchmark {
+    private static final int WIDTH = 1920, HEIGHT = 1080;
+
+    @Param({"1000", "10000"})
+    public int elements;
+
+    @Param({"1", "4", "0"})
+    public int threads;
+
+    @Param({"1", "0.25"})
+    public double scale;
+
+    private ForkJoinPool pool;
+
+    private HeadlessRenderer renderer;
+
+    private RenderSnapshot snapshot;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        DocumentLense lense = DocumentGenerator.generate(elements, DocumentGenerator.FLAT);
+        snapshot = lense.snapshot(WIDTH, HEIGHT);
+        pool = new ForkJoinPool(threads == 0 ? Runtime.getRuntime().availableProcessors() : threads);
+        renderer = new HeadlessRenderer(pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public BufferedImage render() {
+        return renderer.render(snapshot, scale);
+    }
+}
@@ -0,0 +1,80 @@
+package drowsysaturn.sleepyhtmleditor.benchmark;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import drowsysaturn.sleepyhtmleditor.editor.BackgroundStyle;
+import drowsysaturn.sleepyhtmleditor.editor.ScreenCoordinate;
+import drowsysaturn.sleepyhtmleditor.editor.StandardPanel;
+
+/**
+ * Measures StandardPanel rendering for every BackgroundStyle. The panel is resized by a pixel on
+ * every call of resize so its background is prerendered each time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrerenderBenchmark {
+    private static final int IMAGE_WIDTH = 1024, IMAGE_HEIGHT = 768;
+
+    @Param({"SOLID_COLOR", "ORIGINAL", "STRETCH", "COVER", "REPEAT"})
+    public BackgroundStyle style;
+
+    @Param({"200", "800"})
+    public int size;
+
+    private StandardPanel panel;
+
+    private BufferedImage target;
+
+    private Graphics2D graphics;
+
+    private int step = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        panel = new StandardPanel(new ScreenCoordinate(0, 0, 0, 0), new ScreenCoordinate(size, 0, size, 0));
+        panel.setBackgroundColor(new Color(40, 90, 200, 200));
+        panel.setImage(DocumentGenerator.createImage(IMAGE_WIDTH, IMAGE_HEIGHT));
+        panel.setBackgroundStyle(style);
+        target = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB_PRE);
+        graphics = target.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage resize() {
+        int width = size - (step++ & 1);
+        panel.render(graphics, 0, 0, width, size);
+        return target;
+    }
+
+    @Benchmark
+    public BufferedImage unchanged() {
+        panel.render(graphics, 0, 0, size, size);
+        return target;
+    }
+}
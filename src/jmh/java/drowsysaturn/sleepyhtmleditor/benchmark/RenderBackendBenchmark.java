@@ -0,0 +1,138 @@
+package drowsysaturn.sleepyhtmleditor.benchmark;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import drowsysaturn.sleepyhtmleditor.editor.DocumentLense;
+import drowsysaturn.sleepyhtmleditor.editor.FrameBuffer;
+import drowsysaturn.sleepyhtmleditor.editor.StandardPanel;
+import drowsysaturn.sleepyhtmleditor.gui.FxRenderBackend;
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * Compares the AWT and JavaFX render backends with a full repaint of a document, each ending with
+ * the pixels in a JavaFX image. The AWT backend paints a FrameBuffer and copies it into an image,
+ * as DocumentCanvas does. The JavaFX backend draws into a canvas on the FX thread and takes a
+ * snapshot of it, which makes the JavaFX pipeline rasterize the recorded operations.
+ *
+ * Starts the JavaFX toolkit, so it needs a display.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBackendBenchmark {
+    @Param({"10", "1000", "10000"})
+    public int elements;
+
+    @Param({DocumentGenerator.FLAT, DocumentGenerator.BALANCED, DocumentGenerator.DEEP})
+    public String shape;
+
+    @Param({"640x480", "1920x1080"})
+    public String canvas;
+
+    private DocumentLense lense;
+
+    private StandardPanel root;
+
+    private int width, height;
+
+    private WritableImage image;
+
+    private Canvas fxCanvas;
+
+    private FxRenderBackend fxBackend;
+
+    private final Rectangle damage = new Rectangle();
+
+    private int step = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        int separator = canvas.indexOf('x');
+        width = Integer.parseInt(canvas.substring(0, separator));
+        height = Integer.parseInt(canvas.substring(separator + 1));
+        lense = DocumentGenerator.generate(elements, shape);
+        root = (StandardPanel)lense.getRoot();
+        image = new WritableImage(width, height);
+        startToolkit();
+        onFxThread(() -> {
+            fxCanvas = new Canvas(width, height);
+            fxBackend = new FxRenderBackend(fxCanvas.getGraphicsContext2D());
+            return null;
+        });
+        lense.render(width, height);
+    }
+
+    @Benchmark
+    public WritableImage awt() {
+        root.setBackgroundColor((step++ & 1) == 0 ? Color.WHITE : Color.LIGHT_GRAY);
+        FrameBuffer frame = lense.render(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbPreInstance(), frame.getPixels(), 0, width);
+        return image;
+    }
+
+    @Benchmark
+    public WritableImage javafx() throws Exception {
+        root.setBackgroundColor((step++ & 1) == 0 ? Color.WHITE : Color.LIGHT_GRAY);
+        return onFxThread(() -> {
+            GraphicsContext ctx = fxCanvas.getGraphicsContext2D();
+            Lock lock = lense.getReadLock();
+            lock.lock();
+            try {
+                lense.collectDamage(width, height, damage);
+                ctx.save();
+                ctx.setFill(javafx.scene.paint.Color.WHITE);
+                ctx.fillRect(damage.x, damage.y, damage.width, damage.height);
+                fxBackend.reset();
+                lense.renderRegion(fxBackend, damage, lense.getEditGeneration());
+                ctx.restore();
+            }
+            finally {
+                lock.unlock();
+            }
+            return fxCanvas.snapshot(null, image);
+        });
+    }
+
+    private static void startToolkit() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            Platform.startup(started::countDown);
+        } catch (IllegalStateException e) {
+            // Already started by an earlier trial.
+            started.countDown();
+        }
+        started.await();
+    }
+
+    private static <T> T onFxThread(Callable<T> task) throws Exception {
+        FutureTask<T> future = new FutureTask<T>(task);
+        Platform.runLater(future);
+        return future.get();
+    }
+}
@@ -0,0 +1,86 @@
+package drowsysaturn.sleepyhtmleditor.benchmark;
+
+import java.awt.Color;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import drowsysaturn.sleepyhtmleditor.editor.DocumentElement;
+import drowsysaturn.sleepyhtmleditor.editor.DocumentLense;
+import drowsysaturn.sleepyhtmleditor.editor.FrameBuffer;
+import drowsysaturn.sleepyhtmleditor.editor.ScreenCoordinate;
+import drowsysaturn.sleepyhtmleditor.editor.StandardPanel;
+
+/**
+ * Measures DocumentLense.render for a full repaint, a repaint after moving one element,
+ * and a frame in which nothing changed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int elements;
+
+    @Param({DocumentGenerator.FLAT, DocumentGenerator.BALANCED, DocumentGenerator.DEEP})
+    public String shape;
+
+    @Param({"640x480", "1920x1080"})
+    public String canvas;
+
+    private DocumentLense lense;
+
+    private StandardPanel root;
+
+    private DocumentElement moved;
+
+    private int width, height;
+
+    private int step = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int separator = canvas.indexOf('x');
+        width = Integer.parseInt(canvas.substring(0, separator));
+        height = Integer.parseInt(canvas.substring(separator + 1));
+        lense = DocumentGenerator.generate(elements, shape);
+        root = (StandardPanel)lense.getRoot();
+        moved = root.getChildren().getLast();
+        lense.render(width, height);
+    }
+
+    /**
+     * Repaints the whole canvas by changing the color of the root.
+     */
+    @Benchmark
+    public FrameBuffer fullRepaint() {
+        root.setBackgroundColor((step++ & 1) == 0 ? Color.WHITE : Color.LIGHT_GRAY);
+        return lense.render(width, height);
+    }
+
+    @Benchmark
+    public FrameBuffer moveOneElement() {
+        step++;
+        moved.setPosition(new ScreenCoordinate(step%64, 0.25, step%32, 0.25));
+        return lense.render(width, height);
+    }
+
+    @Benchmark
+    public FrameBuffer unchanged() {
+        return lense.render(width, height);
+    }
+}
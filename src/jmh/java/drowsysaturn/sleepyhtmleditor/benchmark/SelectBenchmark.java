@@ -0,0 +1,64 @@
+package drowsysaturn.sleepyhtmleditor.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import drowsysaturn.sleepyhtmleditor.editor.DocumentElement;
+import drowsysaturn.sleepyhtmleditor.editor.DocumentLense;
+
+/**
+ * Measures DocumentLense.select at random points of an unchanging document.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectBenchmark {
+    private static final int WIDTH = 1280, HEIGHT = 800;
+
+    private static final int POINT_COUNT = 1024;
+
+    @Param({"10", "1000", "100000"})
+    public int elements;
+
+    @Param({DocumentGenerator.FLAT, DocumentGenerator.BALANCED, DocumentGenerator.DEEP})
+    public String shape;
+
+    private DocumentLense lense;
+
+    private final int[] pointsX = new int[POINT_COUNT], pointsY = new int[POINT_COUNT];
+
+    private int point = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        lense = DocumentGenerator.generate(elements, shape);
+        Random random = new Random(7);
+        for (int i = 0; i < POINT_COUNT; i++) {
+            pointsX[i] = random.nextInt(WIDTH);
+            pointsY[i] = random.nextInt(HEIGHT);
+        }
+        lense.select(WIDTH, HEIGHT, 0, 0);
+    }
+
+    @Benchmark
+    public DocumentElement select() {
+        point = (point + 1)%POINT_COUNT;
+        return lense.select(WIDTH, HEIGHT, pointsX[point], pointsY[point]);
+    }
+}
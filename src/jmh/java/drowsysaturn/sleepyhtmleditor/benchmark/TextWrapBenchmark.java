@@ -0,0 +1,117 @@
+package drowsysaturn.sleepyhtmleditor.benchmark;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import drowsysaturn.sleepyhtmleditor.editor.BackgroundStyle;
+import drowsysaturn.sleepyhtmleditor.editor.ScreenCoordinate;
+import drowsysaturn.sleepyhtmleditor.editor.TextPanel;
+import drowsysaturn.sleepyhtmleditor.editor.TextWrapper;
+
+/**
+ * Measures line wrapping of TextPanel, both through TextWrapper alone and through a full TextPanel render.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextWrapBenchmark {
+    private static final int WIDTH = 400, HEIGHT = 300;
+
+    private static final String[] WORDS = {"the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "sleepy", "editor"};
+
+    @Param({"20", "2000"})
+    public int words;
+
+    @Param({"1", "10"})
+    public int paragraphs;
+
+    private String text, editedText;
+
+    private Font font;
+
+    private BufferedImage image;
+
+    private Graphics2D graphics;
+
+    private FontMetrics fontMetrics;
+
+    private TextWrapper wrapper;
+
+    private TextPanel panel;
+
+    private int step = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(3);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                builder.append(i%(words/paragraphs + 1) == 0 ? '\n' : ' ');
+            }
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        text = builder.toString();
+        editedText = text + " edited";
+        font = new Font("SansSerif", Font.PLAIN, 16);
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        graphics = image.createGraphics();
+        fontMetrics = graphics.getFontMetrics(font);
+        wrapper = new TextWrapper();
+        panel = new TextPanel(new ScreenCoordinate(0, 0, 0, 0), new ScreenCoordinate(WIDTH, 0, HEIGHT, 0), text);
+        panel.setBackgroundStyle(BackgroundStyle.SOLID_COLOR);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    /**
+     * Wraps the same text at a different width every time.
+     */
+    @Benchmark
+    public int rewrapNewWidth() {
+        wrapper.wrap(text, font, fontMetrics, WIDTH - (step++ & 63));
+        return wrapper.getLineCount();
+    }
+
+    /**
+     * Wraps text in which only the last paragraph changed.
+     */
+    @Benchmark
+    public int rewrapEditedParagraph() {
+        wrapper.wrap((step++ & 1) == 0 ? text : editedText, font, fontMetrics, WIDTH);
+        return wrapper.getLineCount();
+    }
+
+    /**
+     * Renders the panel with unchanged text and size.
+     */
+    @Benchmark
+    public BufferedImage renderPanel() {
+        panel.render(graphics, 0, 0, WIDTH, HEIGHT);
+        return image;
+    }
+}
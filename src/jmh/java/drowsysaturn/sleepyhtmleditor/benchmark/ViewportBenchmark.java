@@ -0,0 +1,75 @@
+package drowsysaturn.sleepyhtmleditor.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import drowsysaturn.sleepyhtmleditor.editor.DocumentLense;
+import drowsysaturn.sleepyhtmleditor.editor.FrameBuffer;
+import drowsysaturn.sleepyhtmleditor.editor.TileCache;
+import drowsysaturn.sleepyhtmleditor.editor.Viewport;
+
+/**
+ * Measures rendering a 1920x1080 frame after scrolling and after switching between two zooms,
+ * with frames put together from a TileCache or painted directly.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViewportBenchmark {
+    private static final int WIDTH = 1920, HEIGHT = 1080;
+
+    @Param({"1000", "10000"})
+    public int elements;
+
+    @Param({DocumentGenerator.FLAT, DocumentGenerator.DEEP})
+    public String shape;
+
+    @Param({"true", "false"})
+    public boolean tiles;
+
+    private DocumentLense lense;
+
+    private int step = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        lense = DocumentGenerator.generate(elements, shape);
+        if (tiles) {
+            lense.setTileCache(new TileCache(TileCache.DEFAULT_MAX_BYTES));
+        }
+        lense.render(WIDTH, HEIGHT);
+    }
+
+    /**
+     * Scrolls back and forth over a few screens, 16 pixels at a time.
+     */
+    @Benchmark
+    public FrameBuffer scroll() {
+        step++;
+        int position = step%256 < 128 ? step%128 : 128 - step%128;
+        lense.setViewport(new Viewport(1, position*16, position*8));
+        return lense.render(WIDTH, HEIGHT);
+    }
+
+    @Benchmark
+    public FrameBuffer switchZoom() {
+        step++;
+        lense.setViewport((step & 1) == 0 ? Viewport.IDENTITY : new Viewport(1.5, 0, 0));
+        return lense.render(WIDTH, HEIGHT);
+    }
+}
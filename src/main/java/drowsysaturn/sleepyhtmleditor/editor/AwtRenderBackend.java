@@ -0,0 +1,76 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+
+/**
+ * Render backend which draws with a Graphics, usually of a BufferedImage. The color and font are
+ * only set when they change, since consecutive operations mostly share them.
+ *
+ * Example usage:
+ * <code>
+ * Graphics2D graphics = image.createGraphics();
+ * lense.renderRegion(new AwtRenderBackend(graphics), region, generation);
+ * graphics.dispose();
+ * </code>
+ */
+public class AwtRenderBackend implements RenderBackend {
+    private final Graphics graphics;
+
+    private Color currentColor = null;
+
+    private Font currentFont = null;
+
+    public AwtRenderBackend(Graphics graphics) {
+        if (graphics == null) {
+            throw new IllegalArgumentException("Graphics must not be null");
+        }
+        this.graphics = graphics;
+    }
+
+    @Override
+    public void fillRect(int x, int y, int width, int height, Color color) {
+        setColor(color);
+        graphics.fillRect(x, y, width, height);
+    }
+
+    @Override
+    public void drawImage(BufferedImage image, int x, int y, int width, int height) {
+        graphics.drawImage(image, x, y, width, height, null);
+    }
+
+    @Override
+    public void drawText(char[] chars, int start, int length, int x, int y, Font font, Color color) {
+        setColor(color);
+        if (font != currentFont) {
+            graphics.setFont(font);
+            currentFont = font;
+        }
+        graphics.drawChars(chars, start, length, x, y);
+    }
+
+    @Override
+    public void clip(int x, int y, int width, int height) {
+        graphics.clipRect(x, y, width, height);
+    }
+
+    /**
+     * Gets the wrapped Graphics. Whoever draws with it may change its color and font, so they are
+     * set again before the next operation.
+     */
+    @Override
+    public Graphics getGraphics() {
+        currentColor = null;
+        currentFont = null;
+        return graphics;
+    }
+
+    private void setColor(Color color) {
+        if (color != currentColor) {
+            graphics.setColor(color);
+            currentColor = color;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Children of a DocumentElement in the order they are painted, first to last.
+ * Children are stored in an array and each child remembers its slot, so removing a child only
+ * clears its slot. Children can be added at either end without moving the others, which makes
+ * adding, removing, bringing to front, and sending to back constant time.
+ * Cleared slots are compacted away once they outnumber the children.
+ *
+ * The list is changed through DocumentElement, for example with addChild and bringToFront.
+ */
+public class ChildList implements Iterable<DocumentElement> {
+    private static final DocumentElement[] EMPTY = new DocumentElement[0];
+
+    private static final int MIN_CAPACITY = 4;
+
+    /**
+     * Children stored between head and tail. Slots of removed children are null.
+     */
+    private DocumentElement[] slots = EMPTY;
+
+    private int head = 0, tail = 0;
+
+    private int size = 0;
+
+    /**
+     * Number of changes, used to detect a change during iteration.
+     */
+    private int modCount = 0;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the child painted first.
+     * @throws NoSuchElementException If the list is empty.
+     */
+    public DocumentElement getFirst() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return slots[head];
+    }
+
+    /**
+     * Gets the child painted last, which is on top of its siblings.
+     * @throws NoSuchElementException If the list is empty.
+     */
+    public DocumentElement getLast() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return slots[tail - 1];
+    }
+
+    /**
+     * Iterates from the child painted first to the child painted last.
+     */
+    @Override
+    public Iterator<DocumentElement> iterator() {
+        return new ChildIterator(false);
+    }
+
+    /**
+     * Iterates from the child painted last to the child painted first.
+     */
+    public Iterator<DocumentElement> descendingIterator() {
+        return new ChildIterator(true);
+    }
+
+    /**
+     * Adds the child on top of the others.
+     */
+    void addLast(DocumentElement child) {
+        if (tail == slots.length) {
+            reallocate(Math.min(head, MIN_CAPACITY));
+        }
+        child.childSlot = tail;
+        slots[tail++] = child;
+        size++;
+        modCount++;
+    }
+
+    /**
+     * Adds the child below the others.
+     */
+    void addFirst(DocumentElement child) {
+        if (head == 0) {
+            reallocate(Math.max(MIN_CAPACITY, size/2));
+        }
+        child.childSlot = --head;
+        slots[head] = child;
+        size++;
+        modCount++;
+    }
+
+    /**
+     * Removes a child of this list.
+     */
+    void remove(DocumentElement child) {
+        slots[child.childSlot] = null;
+        child.childSlot = -1;
+        size--;
+        modCount++;
+        while (head < tail && slots[head] == null) {
+            head++;
+        }
+        while (tail > head && slots[tail - 1] == null) {
+            tail--;
+        }
+        if (size == 0) {
+            head = 0;
+            tail = 0;
+        } else if (tail - head - size > Math.max(size, MIN_CAPACITY)) {
+            reallocate(Math.min(head, MIN_CAPACITY));
+        }
+    }
+
+    /**
+     * Moves the children into an array with room for as many children again, leaving the given
+     * number of free slots before the first child. Removed slots are dropped.
+     */
+    private void reallocate(int headRoom) {
+        DocumentElement[] moved = new DocumentElement[headRoom + Math.max(MIN_CAPACITY, size*2)];
+        int slot = headRoom;
+        for (int i = head; i < tail; i++) {
+            DocumentElement child = slots[i];
+            if (child != null) {
+                child.childSlot = slot;
+                moved[slot++] = child;
+            }
+        }
+        slots = moved;
+        head = headRoom;
+        tail = slot;
+    }
+
+    private class ChildIterator implements Iterator<DocumentElement> {
+        private final boolean descending;
+
+        private final int expectedModCount = modCount;
+
+        /**
+         * Slot of the next child, or a slot outside of head and tail when there is none.
+         */
+        private int next;
+
+        private ChildIterator(boolean descending) {
+            this.descending = descending;
+            this.next = descending ? tail - 1 : head;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (descending) {
+                while (next >= head && slots[next] == null) {
+                    next--;
+                }
+                return next >= head;
+            }
+            while (next < tail && slots[next] == null) {
+                next++;
+            }
+            return next < tail;
+        }
+
+        @Override
+        public DocumentElement next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            DocumentElement child = slots[next];
+            next += descending ? -1 : 1;
+            return child;
+        }
+    }
+}
@@ -1,36 +1,225 @@
 package drowsysaturn.sleepyhtmleditor.editor;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Encodes and decodes SingleScreenCoordinates into String objects.
+ * The encoding is a percentage of the parent plus an offset in pixels, like "50% + -200px".
+ * Whitespace is allowed around the numbers and the plus sign. The first coordinate found in the
+ * text is decoded, and any text before and after it is ignored.
+ *
+ * The parser is hand written and does not allocate when decoding into arrays with
+ * decode(CharSequence, int, int, double[], int[], int) or decodeAll. Likewise encode(double, int, StringBuilder)
+ * appends to an existing builder without creating a String.
+ *
+ * Example usage:
+ * <code>
+ * ScreenCoordinateSingle x = CoordinateCoder.decode("50% + -200px");
+ * String encoded = CoordinateCoder.encode(x);
+ * </code>
  */
 public class CoordinateCoder {
+    /**
+     * Number of decimal places of the percentage kept by encode.
+     */
+    private static final int DECIMAL_PLACES = 6;
+
+    private static final long DECIMAL_SCALE = 1000000;
+
+    /**
+     * Longest run of digits which is converted to a percentage without rounding errors.
+     */
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    /**
+     * Results of decodeAt.
+     */
+    private static final int DECODED = 0, NO_COORDINATE = 1, INVALID_NUMBER = 2;
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
     /**
      * Converts a valid ScreenCoordinateSingle String to its respective object.
      * @throws CoordinateCodingException If the string is not a valid coordinate.
      */
     public static ScreenCoordinateSingle decode(String encodedString) throws CoordinateCodingException {
-        Pattern pattern = Pattern.compile("\\s*(\\-?\\d*\\.?\\d*)\\%\\s*\\+\\s*(\\-?\\d+)px");
-        Matcher matcher = pattern.matcher(encodedString);
-        if (!matcher.find()) {
+        if (encodedString == null) {
             throw new CoordinateCodingException();
         }
-        String percentString = matcher.group(1);
-        String pixelsString = matcher.group(2);
+        double[] percent = new double[1];
+        int[] pixels = new int[1];
+        decode(encodedString, 0, encodedString.length(), percent, pixels, 0);
+        return new ScreenCoordinateSingle(percent[0], pixels[0]);
+    }
+
+    /**
+     * Decodes the first coordinate found between start and end of the text, ignoring any text
+     * before and after it. The percentage, as a fraction of the parent, is stored in percents and
+     * the offset in pixels, both at the given slot.
+     * @throws CoordinateCodingException If the text contains no valid coordinate.
+     */
+    public static void decode(CharSequence text, int start, int end, double[] percents, int[] pixels, int slot)
+            throws CoordinateCodingException {
+        for (int i = start; i < end; i++) {
+            int result = decodeAt(text, i, end, percents, pixels, slot);
+            if (result == DECODED) {
+                return;
+            }
+            if (result == INVALID_NUMBER) {
+                break;
+            }
+        }
+        throw new CoordinateCodingException();
+    }
+
+    /**
+     * Decodes a coordinate starting exactly at i, optionally after whitespace. The slots are only
+     * changed if it is decoded.
+     * @return DECODED, NO_COORDINATE if the text at i does not have the form of a coordinate, or
+     * INVALID_NUMBER if the first coordinate has no digits or too many pixels.
+     */
+    private static int decodeAt(CharSequence text, int i, int end, double[] percents, int[] pixels, int slot) {
+        i = skipWhitespace(text, i, end);
+        boolean negative = false;
+        if (i < end && text.charAt(i) == '-') {
+            negative = true;
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0, decimals = 0;
+        boolean seenPoint = false;
+        int numberStart = i;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (mantissa != 0 || c != '0') {
+                    digits++;
+                }
+                if (digits <= MAX_EXACT_DIGITS) {
+                    mantissa = mantissa*10 + (c - '0');
+                }
+                if (seenPoint) {
+                    decimals++;
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        int numberEnd = i;
+        if (!isAt(text, i, end, '%')) {
+            return NO_COORDINATE;
+        }
+        i = skipWhitespace(text, i + 1, end);
+        if (!isAt(text, i, end, '+')) {
+            return NO_COORDINATE;
+        }
+        i = skipWhitespace(text, i + 1, end);
+        boolean negativePixels = false;
+        if (i < end && text.charAt(i) == '-') {
+            negativePixels = true;
+            i++;
+        }
+        long pixelValue = 0;
+        int pixelStart = i;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            // Stops growing once out of range, so long runs of digits cannot overflow.
+            pixelValue = Math.min(pixelValue*10 + (c - '0'), (long)Integer.MAX_VALUE + 2);
+        }
+        if (i == pixelStart || !isAt(text, i, end, 'p') || !isAt(text, i + 1, end, 'x')) {
+            return NO_COORDINATE;
+        }
+        if (negativePixels) {
+            pixelValue = -pixelValue;
+        }
+        if (numberEnd - numberStart == (seenPoint ? 1 : 0) || pixelValue > Integer.MAX_VALUE || pixelValue < Integer.MIN_VALUE) {
+            // The percentage has no digits or the pixels do not fit an int.
+            return INVALID_NUMBER;
+        }
         double percent;
-        int pixels;
-        try {
-            percent = Double.parseDouble(percentString)/100;
-            pixels = Integer.parseInt(pixelsString);
-        } catch (Exception ex) {
-            throw new CoordinateCodingException(ex);
+        if (digits <= MAX_EXACT_DIGITS && decimals < POWERS_OF_TEN.length) {
+            percent = mantissa/POWERS_OF_TEN[decimals];
+        } else {
+            // Too long to convert exactly, which only happens for unusual input.
+            percent = Double.parseDouble(text.subSequence(numberStart, numberEnd).toString());
+        }
+        percents[slot] = (negative ? -percent : percent)/100;
+        pixels[slot] = (int)pixelValue;
+        return DECODED;
+    }
+
+    /**
+     * Decodes every coordinate of encoded into the same index of percents and pixels.
+     * @throws CoordinateCodingException If any of the strings is not a valid coordinate.
+     */
+    public static void decodeAll(CharSequence[] encoded, double[] percents, int[] pixels) throws CoordinateCodingException {
+        if (percents.length < encoded.length || pixels.length < encoded.length) {
+            throw new IllegalArgumentException("Arrays are too short for the decoded coordinates");
+        }
+        for (int i = 0; i < encoded.length; i++) {
+            if (encoded[i] == null) {
+                throw new CoordinateCodingException();
+            }
+            decode(encoded[i], 0, encoded[i].length(), percents, pixels, i);
         }
-        return new ScreenCoordinateSingle(percent, pixels);
     }
 
     public static String encode(ScreenCoordinateSingle coordinateSingle) {
-        return coordinateSingle.getPercent()*100 + "%" + " + " + coordinateSingle.getPixels() + "px";
+        return encode(coordinateSingle.getPercent(), coordinateSingle.getPixels());
+    }
+
+    /**
+     * Encodes a percentage, as a fraction of the parent, and an offset in pixels.
+     */
+    public static String encode(double percent, int pixels) {
+        StringBuilder builder = new StringBuilder(24);
+        encode(percent, pixels, builder);
+        return builder.toString();
+    }
+
+    /**
+     * Appends the encoded coordinate to the builder. The percentage is rounded to six decimal places
+     * and written without trailing zeros.
+     */
+    public static void encode(double percent, int pixels, StringBuilder builder) {
+        double value = percent*100;
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            value = 0;
+        }
+        long scaled = Math.round(Math.abs(value)*DECIMAL_SCALE);
+        if (value < 0 && scaled != 0) {
+            builder.append('-');
+        }
+        builder.append(scaled/DECIMAL_SCALE);
+        long fraction = scaled%DECIMAL_SCALE;
+        if (fraction != 0) {
+            builder.append('.');
+            long divisor = DECIMAL_SCALE/10;
+            for (int i = 0; i < DECIMAL_PLACES && fraction != 0; i++) {
+                builder.append((char)('0' + fraction/divisor));
+                fraction %= divisor;
+                divisor /= 10;
+            }
+        }
+        builder.append("% + ").append(pixels).append("px");
+    }
+
+    /**
+     * Skips the whitespace characters matched by \s in regular expressions.
+     */
+    private static int skipWhitespace(CharSequence text, int i, int end) {
+        while (i < end && " \t\n\u000b\f\r".indexOf(text.charAt(i)) >= 0) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isAt(CharSequence text, int i, int end, char c) {
+        return i < end && text.charAt(i) == c;
     }
-}
\ No newline at end of file
+}
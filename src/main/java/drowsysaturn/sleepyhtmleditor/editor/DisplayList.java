@@ -0,0 +1,394 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Flat list of the draw operations of a document, compiled from the element tree after each
+ * layout and replayed in a single loop instead of walking the tree. Operations and elements are
+ * stored as parallel arrays, with rectangles resolved to absolute pixels and with the colors,
+ * images, and text lines they draw.
+ *
+ * Elements appear in paint order, each followed by its descendants, with the operations of an
+ * element painting itself without its children. Only elements which moved or changed since the
+ * last layout are compiled again. When the paint order is the same and the recompiled elements
+ * have as many operations as before, their operations are replaced in place. Otherwise the list
+ * is rebuilt, copying over the operations of every element which was not recompiled.
+ * Elements which do not compile themselves are painted with render, along with their descendants.
+ *
+ * Example usage, from DocumentElement.compile:
+ * <code>
+ * list.addFill(x, y, width, height, java.awt.Color.RED);
+ * </code>
+ */
+public class DisplayList {
+    private static final byte OP_FILL = 0;
+    private static final byte OP_IMAGE = 1;
+    private static final byte OP_ELEMENT_IMAGE = 2;
+    private static final byte OP_TEXT = 3;
+
+    /**
+     * Elements in paint order and what the replay needs to know about each of them.
+     */
+    private DocumentElement[] elements = new DocumentElement[16];
+
+    private int[] subtreeX = new int[16], subtreeY = new int[16], subtreeWidth = new int[16], subtreeHeight = new int[16];
+
+    private int[] subtreeSizes = new int[16];
+
+    private boolean[] occluded = new boolean[16], subtreeOccluded = new boolean[16];
+
+    /**
+     * The element did not compile itself, so it is painted with render.
+     */
+    private boolean[] rendered = new boolean[16];
+
+    /**
+     * Index of the first operation of every element, followed by the end of the operations.
+     */
+    private int[] firstOps = new int[17];
+
+    private int elementCount = 0;
+
+    private Ops ops = new Ops();
+
+    /**
+     * Operations being compiled, swapped with ops when done.
+     */
+    private Ops compiled = new Ops();
+
+    /**
+     * Number of elements compiled by the last update.
+     */
+    private int compiledElements = 0;
+
+    /**
+     * Adds a rectangle filled with a color.
+     */
+    public void addFill(int x, int y, int width, int height, Color color) {
+        int op = compiled.add(OP_FILL, x, y, width, height);
+        compiled.paints[op] = color;
+    }
+
+    /**
+     * Adds an image drawn scaled to the rectangle.
+     */
+    public void addImage(BufferedImage image, int x, int y, int width, int height) {
+        int op = compiled.add(OP_IMAGE, x, y, width, height);
+        compiled.handles[op] = image;
+    }
+
+    /**
+     * Adds an image which the element provides with DocumentElement.prepareImage whenever it is
+     * drawn. Used for images which are expensive to make or to keep, so the element only makes the
+     * image once it is seen and may drop it when memory is short.
+     */
+    public void addElementImage(DocumentElement element, int x, int y, int width, int height) {
+        int op = compiled.add(OP_ELEMENT_IMAGE, x, y, width, height);
+        compiled.handles[op] = element;
+    }
+
+    /**
+     * Adds a line of wrapped text with its baseline starting at x and y.
+     * The wrapper must keep the line until the element is compiled again.
+     */
+    public void addTextLine(TextWrapper wrapper, int line, Font font, Color color, int x, int y) {
+        int op = compiled.add(OP_TEXT, x, y, 0, 0);
+        compiled.handles[op] = wrapper;
+        compiled.paints[op] = color;
+        compiled.fonts[op] = font;
+        compiled.lines[op] = line;
+    }
+
+    /**
+     * Gets the number of operations in the list.
+     */
+    public int getOpCount() {
+        return ops.count;
+    }
+
+    /**
+     * Gets the number of elements compiled by the last update, as opposed to copied.
+     */
+    public int getCompiledElementCount() {
+        return compiledElements;
+    }
+
+    /**
+     * Updates the list from the paint order of a layout. Elements marked by the layout are
+     * compiled, the others keep their operations.
+     */
+    void update(List<DocumentElement> paintOrder) {
+        compiledElements = 0;
+        if (!updateInPlace(paintOrder)) {
+            rebuild(paintOrder);
+        }
+    }
+
+    /**
+     * Replaces the operations of the marked elements where they are.
+     * @return False if the paint order changed or an element now has a different number of operations.
+     */
+    private boolean updateInPlace(List<DocumentElement> paintOrder) {
+        int count = paintOrder.size();
+        if (count != elementCount) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (elements[i] != paintOrder.get(i)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            DocumentElement element = elements[i];
+            copyBounds(i, element);
+            if (!element.opsStale) {
+                continue;
+            }
+            Rectangle bounds = element.getLayoutBounds();
+            compiled.count = 0;
+            boolean elementRendered = !element.compile(this, bounds.x, bounds.y, bounds.width, bounds.height);
+            compiledElements++;
+            if (elementRendered != element.opsRendered || (!elementRendered && compiled.count != element.opCount)) {
+                // The element stays marked and is compiled again by the rebuild.
+                compiled.clear();
+                return false;
+            }
+            element.opsStale = false;
+            if (!elementRendered) {
+                ops.put(element.firstOp, compiled, 0, compiled.count);
+            }
+            compiled.clear();
+        }
+        return true;
+    }
+
+    /**
+     * Builds the operations of every element again, copying those of the elements which were not marked.
+     */
+    private void rebuild(List<DocumentElement> paintOrder) {
+        int count = paintOrder.size();
+        ensureElementCapacity(count);
+        compiled.count = 0;
+        for (int i = 0; i < count; i++) {
+            DocumentElement element = paintOrder.get(i);
+            elements[i] = element;
+            copyBounds(i, element);
+            int start = compiled.count;
+            if (element.opsStale) {
+                Rectangle bounds = element.getLayoutBounds();
+                element.opsStale = false;
+                element.opsRendered = !element.compile(this, bounds.x, bounds.y, bounds.width, bounds.height);
+                compiledElements++;
+                if (element.opsRendered) {
+                    compiled.count = start;
+                }
+            } else if (!element.opsRendered) {
+                compiled.copy(ops, element.firstOp, element.opCount);
+            }
+            rendered[i] = element.opsRendered;
+            firstOps[i] = start;
+            element.firstOp = start;
+            element.opCount = compiled.count - start;
+        }
+        firstOps[count] = compiled.count;
+        for (int i = count; i < elementCount; i++) {
+            elements[i] = null;
+        }
+        elementCount = count;
+        Ops previous = ops;
+        ops = compiled;
+        compiled = previous;
+        compiled.clear();
+    }
+
+    private void copyBounds(int index, DocumentElement element) {
+        Rectangle subtree = element.getSubtreeBounds();
+        subtreeX[index] = subtree.x;
+        subtreeY[index] = subtree.y;
+        subtreeWidth[index] = subtree.width;
+        subtreeHeight[index] = subtree.height;
+        subtreeSizes[index] = element.subtreeSize;
+        occluded[index] = element.occluded;
+        subtreeOccluded[index] = element.subtreeOccluded;
+    }
+
+    /**
+     * Draws the elements which overlap the region, skipping elements outside of it or hidden behind
+     * opaque elements along with their descendants. Stops if the frame became stale.
+     * Layers are only drawn by backends with a Graphics, and elements painted with render are drawn
+     * as an image by backends without one.
+     */
+    void replay(RenderBackend backend, Rectangle region, DocumentLense lense) {
+        int left = region.x, top = region.y, right = region.x + region.width, bottom = region.y + region.height;
+        boolean awt = backend.getGraphics() != null;
+        boolean layers = awt && lense.getLayerCache() != null;
+        int i = 0;
+        while (i < elementCount) {
+            if (lense.isPaintingCancelled()) {
+                return;
+            }
+            if (subtreeOccluded[i] || subtreeX[i] >= right || subtreeY[i] >= bottom
+                    || subtreeX[i] + subtreeWidth[i] <= left || subtreeY[i] + subtreeHeight[i] <= top) {
+                lense.countCulled(subtreeSizes[i]);
+                i += subtreeSizes[i];
+                continue;
+            }
+            if (occluded[i]) {
+                lense.countCulled(1);
+                i++;
+                continue;
+            }
+            DocumentElement element = elements[i];
+            if (layers && element.paintLayer(backend.getGraphics())) {
+                i += subtreeSizes[i];
+                continue;
+            }
+            if (rendered[i]) {
+                if (awt) {
+                    lense.countDrawn(1);
+                    Rectangle bounds = element.getLayoutBounds();
+                    element.render(backend.getGraphics(), bounds.x, bounds.y, bounds.width, bounds.height);
+                } else {
+                    BufferedImage image = lense.renderOffscreen(element);
+                    if (image != null) {
+                        backend.drawImage(image, subtreeX[i], subtreeY[i], subtreeWidth[i], subtreeHeight[i]);
+                    }
+                }
+                i += subtreeSizes[i];
+                continue;
+            }
+            lense.countDrawn(1);
+            for (int op = firstOps[i], end = firstOps[i + 1]; op < end; op++) {
+                byte type = ops.types[op];
+                int x = ops.xs[op], y = ops.ys[op], width = ops.widths[op], height = ops.heights[op];
+                if (type == OP_TEXT) {
+                    ((TextWrapper)ops.handles[op]).drawLine(backend, ops.lines[op], x, y, ops.fonts[op], (Color)ops.paints[op]);
+                    continue;
+                }
+                if (x >= right || y >= bottom || x + width <= left || y + height <= top) {
+                    continue;
+                }
+                if (type == OP_FILL) {
+                    backend.fillRect(x, y, width, height, (Color)ops.paints[op]);
+                } else {
+                    BufferedImage image = type == OP_IMAGE ? (BufferedImage)ops.handles[op]
+                        : ((DocumentElement)ops.handles[op]).prepareImage(width, height);
+                    if (image != null) {
+                        backend.drawImage(image, x, y, width, height);
+                    }
+                }
+            }
+            i++;
+        }
+    }
+
+    private void ensureElementCapacity(int count) {
+        if (count + 1 <= firstOps.length) {
+            return;
+        }
+        int capacity = Math.max(count + 1, firstOps.length*2);
+        DocumentElement[] grownElements = new DocumentElement[capacity];
+        System.arraycopy(elements, 0, grownElements, 0, elementCount);
+        elements = grownElements;
+        subtreeX = new int[capacity];
+        subtreeY = new int[capacity];
+        subtreeWidth = new int[capacity];
+        subtreeHeight = new int[capacity];
+        subtreeSizes = new int[capacity];
+        occluded = new boolean[capacity];
+        subtreeOccluded = new boolean[capacity];
+        rendered = new boolean[capacity];
+        firstOps = new int[capacity + 1];
+    }
+
+    /**
+     * Operations stored as parallel arrays.
+     */
+    private static class Ops {
+        private byte[] types = new byte[64];
+
+        private int[] xs = new int[64], ys = new int[64], widths = new int[64], heights = new int[64];
+
+        /**
+         * Color of fills and text.
+         */
+        private Object[] paints = new Object[64];
+
+        /**
+         * Image, element providing an image, or text wrapper.
+         */
+        private Object[] handles = new Object[64];
+
+        private Font[] fonts = new Font[64];
+
+        private int[] lines = new int[64];
+
+        private int count = 0;
+
+        private int add(byte type, int x, int y, int width, int height) {
+            ensureCapacity(count + 1);
+            types[count] = type;
+            xs[count] = x;
+            ys[count] = y;
+            widths[count] = width;
+            heights[count] = height;
+            paints[count] = null;
+            handles[count] = null;
+            fonts[count] = null;
+            lines[count] = 0;
+            return count++;
+        }
+
+        private void copy(Ops from, int start, int length) {
+            ensureCapacity(count + length);
+            put(count, from, start, length);
+            count += length;
+        }
+
+        /**
+         * Overwrites operations starting at the given index with operations of another list.
+         */
+        private void put(int at, Ops from, int start, int length) {
+            System.arraycopy(from.types, start, types, at, length);
+            System.arraycopy(from.xs, start, xs, at, length);
+            System.arraycopy(from.ys, start, ys, at, length);
+            System.arraycopy(from.widths, start, widths, at, length);
+            System.arraycopy(from.heights, start, heights, at, length);
+            System.arraycopy(from.paints, start, paints, at, length);
+            System.arraycopy(from.handles, start, handles, at, length);
+            System.arraycopy(from.fonts, start, fonts, at, length);
+            System.arraycopy(from.lines, start, lines, at, length);
+        }
+
+        /**
+         * Drops the references held by the operations, so removed elements and images can be collected.
+         */
+        private void clear() {
+            Arrays.fill(paints, 0, count, null);
+            Arrays.fill(handles, 0, count, null);
+            Arrays.fill(fonts, 0, count, null);
+            count = 0;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= types.length) {
+                return;
+            }
+            int grown = Math.max(capacity, types.length*2);
+            types = Arrays.copyOf(types, grown);
+            xs = Arrays.copyOf(xs, grown);
+            ys = Arrays.copyOf(ys, grown);
+            widths = Arrays.copyOf(widths, grown);
+            heights = Arrays.copyOf(heights, grown);
+            paints = Arrays.copyOf(paints, grown);
+            handles = Arrays.copyOf(handles, grown);
+            fonts = Arrays.copyOf(fonts, grown);
+            lines = Arrays.copyOf(lines, grown);
+        }
+    }
+}
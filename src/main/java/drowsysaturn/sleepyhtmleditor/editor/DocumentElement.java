@@ -1,22 +1,41 @@
 package drowsysaturn.sleepyhtmleditor.editor;
 
 import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
  * Abstract representation of anything added to the website drawing.
  */
 public abstract class DocumentElement {
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+
     /**
      * List of children.
      */
-    protected LinkedList<DocumentElement> children;
+    protected final ChildList children;
+
+    /**
+     * Identifies this element for as long as the program runs.
+     */
+    private final int id;
+
+    /**
+     * Element this element is a child of, or null.
+     */
+    private DocumentElement parent;
 
-    protected boolean selectionBoxOn = false;
+    /**
+     * Slot of this element in the child list of its parent, kept up to date by ChildList.
+     */
+    int childSlot = -1;
 
     /**
      * Position of this element relative to its parent.
@@ -28,10 +47,108 @@ public abstract class DocumentElement {
      */
     private ScreenCoordinate size;
 
+    /**
+     * Lense of the document this element is attached to, or null if it is not part of a document.
+     */
+    private DocumentLense lense;
+
+    /**
+     * Absolute area given to this element during the last layout.
+     */
+    private final Rectangle layoutBounds = new Rectangle();
+
+    /**
+     * Absolute area this element paints into, without its children. Usually the same as layoutBounds.
+     */
+    private final Rectangle paintedBounds = new Rectangle();
+
+    /**
+     * Absolute area painted by this element and all of its descendants.
+     */
+    private final Rectangle subtreeBounds = new Rectangle();
+
+    /**
+     * Determines if the bounds above are from a previous layout.
+     */
+    private boolean laidOut = false;
+
+    /**
+     * Appearance has changed since the last layout and the painted area must be repainted.
+     */
+    private boolean contentChanged = true;
+
+    /**
+     * Number of elements in the subtree of this element, including itself, as of the last layout.
+     */
+    int subtreeSize = 1;
+
+    /**
+     * Index of this element in the paint order of the last layout. The subtree of the element
+     * follows it, so it covers the indexes up to paintIndex + subtreeSize.
+     */
+    int paintIndex = 0;
+
+    /**
+     * The painted area is covered by an opaque element painted later, so only the children are painted.
+     * Set by DocumentLense after each layout.
+     */
+    boolean occluded = false;
+
+    /**
+     * This element and all of its descendants are occluded, so none of them are painted.
+     */
+    boolean subtreeOccluded = false;
+
+    /**
+     * Increased whenever this element or a descendant changes in a way other than moving this
+     * element, so a layer of the subtree made for an older version is outdated.
+     */
+    private long layerVersion = 0;
+
+    /**
+     * Layer version and position when this element was last painted, used to tell which subtrees
+     * only moved since then.
+     */
+    private long paintedLayerVersion = -1;
+
+    private int paintedX, paintedY;
+
+    /**
+     * The operations of this element in the display list must be compiled again. Set by layout
+     * whenever the element moved or changed.
+     */
+    boolean opsStale = true;
+
+    /**
+     * The element did not compile itself, so the display list paints it with render.
+     */
+    boolean opsRendered = false;
+
+    /**
+     * Range of the operations of this element in the display list.
+     */
+    int firstOp = 0, opCount = 0;
+
     public DocumentElement(ScreenCoordinate position, ScreenCoordinate size) {
         this.position = position;
         this.size = size;
-        this.children = new LinkedList<DocumentElement>();
+        this.children = new ChildList();
+        this.id = nextId.getAndIncrement();
+    }
+
+    /**
+     * Gets the number which identifies this element. No two elements get the same number.
+     * @see DocumentLense#getElementById(int)
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the element this element is a child of, or null if it has no parent.
+     */
+    public DocumentElement getParent() {
+        return parent;
     }
 
     /**
@@ -41,7 +158,13 @@ public abstract class DocumentElement {
         return position;
     }
 
-    public LinkedList<DocumentElement> getChildren() {
+    /**
+     * Gets the children of this element, in the order they are painted. This used to be the
+     * LinkedList the children were stored in. The ChildList has the same size, getFirst, getLast,
+     * and iterators, but cannot be changed directly, so changes go through addChild, removeChild,
+     * bringToFront, and sendToBack, which keep the parent links and the document up to date.
+     */
+    public ChildList getChildren() {
         return children;
     }
 
@@ -52,15 +175,19 @@ public abstract class DocumentElement {
         return size;
     }
 
-    public void showSelectionBox(boolean selectionBoxOn) {
-        this.selectionBoxOn = selectionBoxOn;
-    }
-
     /**
      * Sets the position of the current node relative to its parent.
      */
     public void setPosition(ScreenCoordinate position) {
         this.position = position;
+        // Only the subtree of the parent looks different, a layer of this element can be moved.
+        contentChanged = true;
+        if (parent != null) {
+            parent.layerChanged();
+        }
+        if (lense != null) {
+            lense.requestLayout();
+        }
     }
 
     /**
@@ -68,34 +195,307 @@ public abstract class DocumentElement {
      */
     public void setSize(ScreenCoordinate size) {
         this.size = size;
+        invalidate();
+    }
+
+    /**
+     * Determines if the element is being painted into a quick, low quality frame, for example while
+     * the window is being resized. Elements may then trade quality for speed.
+     */
+    protected boolean isPaintingDraft() {
+        return lense != null && lense.isPaintingDraft();
+    }
+
+    /**
+     * Runs a change to this element while its document is not being rendered.
+     * Used for changes which do not come from the user, like a background image finishing loading.
+     * @see DocumentLense#edit(Runnable)
+     */
+    protected void edit(Runnable change) {
+        if (lense != null) {
+            lense.edit(change);
+        } else {
+            change.run();
+        }
+    }
+
+    /**
+     * Marks the area painted by this element as needing a repaint. Must be called by every
+     * method that changes how the element looks.
+     */
+    protected void invalidate() {
+        contentChanged = true;
+        layerChanged();
+        if (lense != null) {
+            lense.requestLayout();
+        }
+    }
+
+    /**
+     * Gets the version of this subtree, which changes whenever a layer of it becomes outdated.
+     */
+    long getLayerVersion() {
+        return layerVersion;
+    }
+
+    /**
+     * Outdates the layers of this element and its ancestors.
+     */
+    private void layerChanged() {
+        for (DocumentElement element = this; element != null; element = element.parent) {
+            element.layerVersion++;
+        }
+    }
+
+    /**
+     * Determines if a stable subtree of this element is worth caching as a layer when the
+     * document has a LayerCache. Panels with children are cached by default.
+     */
+    protected boolean prefersLayer() {
+        return !children.isEmpty();
+    }
+
+    /**
+     * Gets the absolute area given to this element during the last layout.
+     */
+    public Rectangle getLayoutBounds() {
+        return layoutBounds;
+    }
+
+    /**
+     * Gets the absolute area painted by this element and its descendants during the last layout.
+     */
+    public Rectangle getSubtreeBounds() {
+        return subtreeBounds;
+    }
+
+    /**
+     * Gets the absolute area painted by this element, without its children, during the last layout.
+     */
+    Rectangle getPaintedBounds() {
+        return paintedBounds;
+    }
+
+    /**
+     * Determines if the element covers its whole layout bounds with opaque pixels. Elements hidden
+     * behind an opaque element are not painted. Must only change along with a call to invalidate.
+     */
+    protected boolean isOpaque() {
+        return false;
+    }
+
+    /**
+     * Lets subclasses which paint outside of their box grow the painted area. The bounds
+     * start out as the layout bounds of this element.
+     */
+    protected void computePaintedBounds(Rectangle bounds) {
+    }
+
+    /**
+     * Stores the absolute x, y, width, and height of this element within a parent with the given
+     * bounds into four consecutive slots of the array, starting at offset.
+     */
+    public void resolveBounds(int parentX, int parentY, int parentWidth, int parentHeight, int[] slots, int offset) {
+        slots[offset] = parentX + position.resolveX(parentWidth);
+        slots[offset + 1] = parentY + position.resolveY(parentHeight);
+        slots[offset + 2] = size.resolveX(parentWidth);
+        slots[offset + 3] = size.resolveY(parentHeight);
+    }
+
+    /**
+     * Computes the absolute bounds of this element and its descendants. The old and new painted
+     * areas of every element that moved or changed are reported to the lense as damage.
+     * Must only be called on attached elements.
+     */
+    void layout(int x, int y, int width, int height) {
+        boolean moved = !laidOut || x != layoutBounds.x || y != layoutBounds.y 
+                || width != layoutBounds.width || height != layoutBounds.height;
+        if (moved || contentChanged) {
+            if (laidOut) {
+                lense.addDamage(paintedBounds);
+            }
+            if (moved) {
+                lense.geometryChanged();
+            }
+            layoutBounds.setBounds(x, y, width, height);
+            paintedBounds.setBounds(layoutBounds);
+            computePaintedBounds(paintedBounds);
+            lense.addDamage(paintedBounds);
+            laidOut = true;
+            contentChanged = false;
+            opsStale = true;
+        }
+        lense.addToPaintOrder(this);
+        subtreeBounds.setBounds(paintedBounds);
+        subtreeSize = 1;
+        for (DocumentElement child : children) {
+            ScreenCoordinate childPosition = child.position, childSize = child.size;
+            child.layout(x + childPosition.resolveX(width), y + childPosition.resolveY(height), 
+                    childSize.resolveX(width), childSize.resolveY(height));
+            subtreeBounds.add(child.subtreeBounds);
+            subtreeSize += child.subtreeSize;
+        }
+    }
+
+    /**
+     * Attaches this element and its descendants to the document of the given lense.
+     */
+    void attach(DocumentLense lense) {
+        this.lense = lense;
+        this.laidOut = false;
+        lense.register(this);
+        for (DocumentElement child : children) {
+            child.attach(lense);
+        }
+        lense.requestLayout();
+    }
+
+    /**
+     * Detaches this element and its descendants from their document, damaging the area they covered.
+     */
+    private void detach() {
+        damageSubtree();
+        detachSubtree();
+    }
+
+    private void detachSubtree() {
+        if (lense != null) {
+            lense.unregister(this);
+        }
+        lense = null;
+        laidOut = false;
+        detached();
+        for (DocumentElement child : children) {
+            child.detachSubtree();
+        }
+    }
+
+    /**
+     * Called after this element was removed from its document. Subclasses should stop any
+     * background work done for the element.
+     */
+    protected void detached() {
+    }
+
+    /**
+     * Adds the image files this element draws, which DocumentLense.snapshot decodes before the
+     * snapshot is taken.
+     */
+    protected void collectImageFiles(Collection<File> files) {
     }
 
     public abstract void render(Graphics graphics, int x, int y, int width, int height);
 
     /**
-     * Renders all the children of this element in the given dimensions.
+     * Records the operations which paint this element, without its children, into the display list
+     * of its document. Called after a layout in which the element moved or changed, with the same
+     * bounds render would get. Subclasses which override render must override this as well.
+     * @return False if the element can only be painted by render, which then also paints the children.
+     */
+    protected boolean compile(DisplayList list, int x, int y, int width, int height) {
+        return false;
+    }
+
+    /**
+     * Records the operations which paint this element, without its children, into a snapshot of
+     * the document laid out at another size, given by the bounds. Called while the document may be
+     * painted on another thread, so it must not change the element or anything a render uses.
+     * Records nothing by default, so elements which only render are left out of snapshots while
+     * their children are not.
+     */
+    protected void snapshot(RenderSnapshot snapshot, int x, int y, int width, int height) {
+    }
+
+    /**
+     * Provides the image of an element image operation whenever it is drawn.
+     * @return The image or null to draw nothing.
+     * @see DisplayList#addElementImage(DocumentElement, int, int, int, int)
+     */
+    protected BufferedImage prepareImage(int width, int height) {
+        return null;
+    }
+
+    /**
+     * Renders all the children of this element using the bounds from the last layout. 
+     * Children outside of the clip of graphics, or hidden behind opaque elements painted later,
+     * are skipped along with their descendants. Stops if the frame became stale.
      */
     public void renderChildren(Graphics graphics, int parentX, int parentY, int parentWidth, int parentHeight) {
         for (DocumentElement child : children) {
-            ScreenCoordinate absolutePosition = child.getPosition().toAbsoluteCoordinate(parentWidth, parentHeight);
-            ScreenCoordinate absoluteSize = child.getSize().toAbsoluteCoordinate(parentWidth, parentHeight);
-            int x = parentX + absolutePosition.getPixelsX();
-            int y = parentY + absolutePosition.getPixelsY();
-            int width = absoluteSize.getPixelsX();
-            int height = absoluteSize.getPixelsY();
-            child.render(graphics, x, y, width, height);
+            if (lense == null || lense.isPaintingCancelled()) {
+                return;
+            }
+            if (lense.isPaintingSnapshot() && !lense.isInSnapshot(child, true)) {
+                continue;
+            }
+            Rectangle bounds = child.subtreeBounds;
+            boolean hidden = child.subtreeOccluded && lense.isCullingOcclusion();
+            if (hidden || !graphics.hitClip(bounds.x, bounds.y, bounds.width, bounds.height)) {
+                lense.countCulled(child.subtreeSize);
+            } else {
+                child.paint(graphics);
+            }
+        }
+    }
+
+    /**
+     * Paints this element using the bounds from the last layout. An occluded element only paints its children.
+     */
+    void paint(Graphics graphics) {
+        if ((occluded && lense.isCullingOcclusion()) || (lense.isPaintingSnapshot() && !lense.isInSnapshot(this, false))) {
+            lense.countCulled(1);
+            renderChildren(graphics, layoutBounds.x, layoutBounds.y, layoutBounds.width, layoutBounds.height);
+        } else if (!paintLayer(graphics)) {
+            lense.countDrawn(1);
+            render(graphics, layoutBounds.x, layoutBounds.y, layoutBounds.width, layoutBounds.height);
         }
     }
 
+    /**
+     * Draws the cached layer of this subtree, making the layer first if the subtree only moved.
+     * @return False if the subtree must be painted instead.
+     */
+    boolean paintLayer(Graphics graphics) {
+        LayerCache layers = lense.getLayerCache();
+        if (layers == null || parent == null || lense.isPaintingSnapshot()) {
+            // A layer of the root would be a second copy of the whole frame, and a snapshot
+            // may leave out a descendant which is part of a layer.
+            return false;
+        }
+        boolean translated = paintedLayerVersion == layerVersion 
+                && (paintedX != layoutBounds.x || paintedY != layoutBounds.y);
+        paintedLayerVersion = layerVersion;
+        paintedX = layoutBounds.x;
+        paintedY = layoutBounds.y;
+        LayerCache.Layer layer = layers.get(this, layoutBounds.width, layoutBounds.height, layerVersion, lense.getPaintedFrames());
+        if (layer == null) {
+            // Layers are made for subtrees which moved without changing, likely to move again.
+            // Descendants of a layer being made are not given layers of their own.
+            if (!translated || lense.isPaintingDraft() || lense.isPaintingLayer() || !prefersLayer()) {
+                return false;
+            }
+            layer = lense.renderLayer(this, layerVersion);
+            if (layer == null) {
+                return false;
+            }
+        } else {
+            lense.countDrawn(subtreeSize);
+        }
+        graphics.drawImage(layer.image, layoutBounds.x + layer.offsetX, layoutBounds.y + layer.offsetY, null);
+        return true;
+    }
+
+    /**
+     * Searches this element and its descendants for the top-most element at the cursor.
+     * DocumentLense.select answers the same question using a spatial index.
+     */
     public DocumentElement select(int x, int y, int width, int height, int cursorX, int cursorY) {
         for (Iterator<DocumentElement> i = children.descendingIterator(); i.hasNext(); ) {
             DocumentElement child = i.next();
-            ScreenCoordinate childAbsPos = child.getPosition().toAbsoluteCoordinate(width, height);
-            int childX = x + childAbsPos.getPixelsX();
-            int childY = y + childAbsPos.getPixelsY();
-            ScreenCoordinate childAbsSize = child.getSize().toAbsoluteCoordinate(width, height);
-            int childWidth = childAbsSize.getPixelsX();
-            int childHeight = childAbsSize.getPixelsY();
+            int childX = x + child.position.resolveX(width);
+            int childY = y + child.position.resolveY(height);
+            int childWidth = child.size.resolveX(width);
+            int childHeight = child.size.resolveY(height);
             DocumentElement selected = child.select(childX, childY, childWidth, childHeight, cursorX, cursorY);
             if (selected != null) {
                 return selected;
@@ -121,16 +521,41 @@ public abstract class DocumentElement {
     public abstract String getElementType();
 
     /**
-     * Adds the element to the current node's immediate children. Only adds a child if it doesn't
-     * already exist in this node's children.
+     * Adds the element on top of the current node's immediate children. Only adds a child if it is not
+     * already a child of this node. An element which has another parent is moved to this node.
      * @return True if the child was added.
+     * @throws IllegalArgumentException If the element is this node or one of its ancestors.
      */
     public boolean addChild(DocumentElement element) {
-        boolean shouldAddElement = !this.children.contains(element);
-        if (shouldAddElement) {
-            this.children.add(element);
+        if (element.parent == this) {
+            return false;
+        }
+        for (DocumentElement ancestor = this; ancestor != null; ancestor = ancestor.parent) {
+            if (ancestor == element) {
+                throw new IllegalArgumentException("An element cannot be added to its own subtree");
+            }
         }
-        return shouldAddElement;
+        DocumentElement oldParent = element.parent;
+        if (oldParent != null && lense != null && oldParent.lense == lense) {
+            // Moving within the same document keeps the subtree attached.
+            element.damageSubtree();
+            oldParent.children.remove(element);
+            oldParent.layerChanged();
+            children.addLast(element);
+            element.parent = this;
+            layerChanged();
+            return true;
+        }
+        if (oldParent != null) {
+            oldParent.removeChild(element, false);
+        }
+        children.addLast(element);
+        element.parent = this;
+        layerChanged();
+        if (lense != null) {
+            element.attach(lense);
+        }
+        return true;
     }
 
     /**
@@ -145,18 +570,75 @@ public abstract class DocumentElement {
 
     /**
      * Removes the specified element from either the immediate children or descendants.
+     * Takes time proportional to the depth of the element, not the size of the tree.
      * @param recursive Determines if descendants should be searched too.
      */
     public boolean removeChild(DocumentElement element, boolean recursive) {
-        boolean removed = children.remove(element);
-        if (!removed && recursive) {
-            for (DocumentElement child : children) {
-                removed = child.removeChild(element, true);
-                if (removed) {
-                    break;
-                }
+        DocumentElement elementParent = element.parent;
+        if (elementParent == null) {
+            return false;
+        }
+        if (elementParent != this) {
+            if (!recursive || !isAncestorOf(elementParent)) {
+                return false;
+            }
+        }
+        elementParent.children.remove(element);
+        elementParent.layerChanged();
+        element.parent = null;
+        element.detach();
+        return true;
+    }
+
+    /**
+     * Moves this element above its siblings.
+     */
+    public void bringToFront() {
+        if (parent != null && parent.children.getLast() != this) {
+            ChildList siblings = parent.children;
+            damageSubtree();
+            siblings.remove(this);
+            siblings.addLast(this);
+            parent.layerChanged();
+        }
+    }
+
+    /**
+     * Moves this element below its siblings.
+     */
+    public void sendToBack() {
+        if (parent != null && parent.children.getFirst() != this) {
+            ChildList siblings = parent.children;
+            damageSubtree();
+            siblings.remove(this);
+            siblings.addFirst(this);
+            parent.layerChanged();
+        }
+    }
+
+    /**
+     * Determines if the element is this element or one of its descendants.
+     */
+    public boolean isAncestorOf(DocumentElement element) {
+        for (DocumentElement ancestor = element; ancestor != null; ancestor = ancestor.parent) {
+            if (ancestor == this) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Damages the area covered by this element and its descendants before they change
+     * their place in the paint order.
+     */
+    private void damageSubtree() {
+        if (lense != null) {
+            if (laidOut) {
+                lense.addDamage(subtreeBounds);
             }
+            lense.geometryChanged();
+            lense.requestLayout();
         }
-        return removed;
     }
-}
\ No newline at end of file
+}
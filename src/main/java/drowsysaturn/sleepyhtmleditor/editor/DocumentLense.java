@@ -1,19 +1,181 @@
 package drowsysaturn.sleepyhtmleditor.editor;
 
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * The wrapper around the document tree, allows easier access to tree functions. 
  * Maintains the root node. Helps abstract selection, deletion, and rendering.
+ *
+ * The document may be rendered on another thread. Such a renderer holds the read lock while it
+ * lays out and paints, and every change to attached elements must then be made inside edit,
+ * which holds the write lock. Starting an edit cancels a frame being painted at the next element,
+ * so edits wait for at most one element to finish painting.
+ *
+ * The document is shown through a Viewport, which zooms and scrolls it. Frames, damage, and
+ * selection use screen pixels of the viewport, while elements are laid out in document pixels.
+ * With a TileCache, frames are put together from cached tiles of the zoomed document.
+ *
+ * Example usage:
+ * <code>
+ * lense.edit(() -> panel.setBackgroundColor(java.awt.Color.RED));
+ * </code>
  */
 public class DocumentLense {
     private DocumentElement root;
 
+    /**
+     * Frame kept between renders. Only the damaged parts of it are repainted.
+     */
+    private FrameBuffer frameBuffer;
+
+    /**
+     * Union of the areas which changed since the last render. Has a negative size when nothing changed.
+     */
+    private final Rectangle damage = new Rectangle(0, 0, -1, -1);
+
+    /**
+     * An element was changed, added, or removed since the last layout.
+     */
+    private boolean layoutStale;
+
+    /**
+     * Called when the document changes after it was laid out, or null.
+     */
+    private Runnable invalidationListener;
+
+    /**
+     * Dimensions used by the last layout.
+     */
+    private int layoutWidth, layoutHeight;
+
+    /**
+     * Every element of the document in the order they are painted, filled by the last layout.
+     */
+    private final ArrayList<DocumentElement> paintOrder = new ArrayList<DocumentElement>();
+
+    /**
+     * Draw operations of the elements from the last layout, replayed by renderRegion.
+     */
+    private final DisplayList displayList = new DisplayList();
+
+    /**
+     * Index for selecting elements, or null if elements were moved, added, or removed since it was built.
+     */
+    private SpatialIndex spatialIndex;
+
+    /**
+     * Held while laying out, so threads holding the read lock can check that the layout is up to
+     * date while another reader may lay it out.
+     */
+    private final Object layoutMonitor = new Object();
+
+    /**
+     * Every element of the document by its id.
+     */
+    private final HashMap<Integer, DocumentElement> elementsById = new HashMap<Integer, DocumentElement>();
+
+    /**
+     * Read locked while the document is laid out or painted, write locked while it is changed.
+     */
+    private final ReentrantReadWriteLock documentLock = new ReentrantReadWriteLock();
+
+    /**
+     * Increased when an edit starts. A frame painted since an older generation is stale.
+     */
+    private final AtomicLong editGeneration = new AtomicLong();
+
+    /**
+     * Generation of the frame being painted by renderRegion.
+     */
+    private long paintingGeneration;
+
+    /**
+     * The frame being painted by renderRegion became stale and was cut short.
+     */
+    private boolean paintingCancelled;
+
+    /**
+     * A quick, low quality frame is being painted by renderScaled.
+     */
+    private boolean paintingDraft;
+
+    /**
+     * Bitmaps of stable subtrees, or null if subtrees are always painted.
+     */
+    private LayerCache layerCache;
+
+    /**
+     * Images of subtrees painted by renderOffscreen, kept while the subtree does not change.
+     */
+    private final LayerCache offscreenCache = new LayerCache(LayerCache.DEFAULT_MAX_BYTES);
+
+    /**
+     * A layer is being painted by renderLayer.
+     */
+    private boolean paintingLayer;
+
+    /**
+     * Number of frames painted, used to tell which layers were drawn in the frame being painted.
+     */
+    private long paintedFrames = 0;
+
+    /**
+     * A snapshot is being painted by snapshotForDrag, without layers or occlusion.
+     */
+    private boolean paintingSnapshot;
+
+    /**
+     * Range of paint order indexes painted into the snapshot being painted, end exclusive.
+     */
+    private int snapshotStart, snapshotEnd;
+
+    /**
+     * Number of elements painted and skipped during the last frame.
+     */
+    private int drawnElements, culledElements;
+
+    /**
+     * Part of the document shown by frames. May be changed from any thread.
+     */
+    private volatile Viewport viewport = Viewport.IDENTITY;
+
+    /**
+     * Viewport of the last collected damage, which frames are painted with until the next one.
+     */
+    private Viewport paintViewport = Viewport.IDENTITY;
+
+    /**
+     * Rendered tiles of the zoomed document, or null if frames are painted directly.
+     */
+    private TileCache tileCache;
+
+    /**
+     * Most opaque elements considered as occluders while computing occlusion. The largest are kept.
+     */
+    private static final int MAX_OCCLUDERS = 8;
+
+    /**
+     * Layout bounds of the opaque elements, reused between computations of occlusion.
+     */
+    private final Rectangle[] occluders = new Rectangle[MAX_OCCLUDERS];
+
     public DocumentLense(DocumentElement root) {
         if (root == null) {
             throw new IllegalArgumentException("Document root must not be null.");
         }
         this.root = root;
+        root.attach(this);
     }
 
     /**
@@ -24,11 +186,12 @@ public class DocumentLense {
     }
 
     /**
-     * Creates a display image of the given dimensions.
-     * @return The image or null if the document is not ready.
+     * Renders the document into a frame of the given dimensions. The same frame is reused between calls
+     * and only the areas damaged since the previous call are repainted.
+     * @return The frame or null if the document is not ready.
      * @throws RuntimeException If the root node of this document is null.
      */
-    public BufferedImage render(int width, int height) {
+    public FrameBuffer render(int width, int height) {
         if (root == null) {
             throw new RuntimeException("Document root must not be null.");
         }
@@ -36,32 +199,824 @@ public class DocumentLense {
             // Rendering before layout has updated. Skipping.
             return null;
         }
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        ScreenCoordinate absolutePosition = root.getPosition().toAbsoluteCoordinate(width, height);
-        ScreenCoordinate absoluteSize = root.getSize().toAbsoluteCoordinate(width, height);
-        root.render(image.getGraphics(), absolutePosition.getPixelsX(), absolutePosition.getPixelsY(), 
-                absoluteSize.getPixelsX(), absoluteSize.getPixelsY());
+        documentLock.readLock().lock();
+        try {
+            long generation = editGeneration.get();
+            Rectangle dirty;
+            if (frameBuffer == null || !frameBuffer.hasSize(width, height)) {
+                frameBuffer = new FrameBuffer(width, height);
+                dirty = frameBuffer.getUpdatedArea();
+                collectDamage(width, height, dirty);
+                dirty.setBounds(0, 0, width, height);
+            } else {
+                dirty = frameBuffer.getUpdatedArea();
+                collectDamage(width, height, dirty);
+            }
+            if (!renderRegion(frameBuffer, dirty, generation)) {
+                // Another thread started an edit. Paint the area again next time, in document pixels.
+                damage.add(paintViewport.toDocument(dirty));
+            }
+        }
+        finally {
+            documentLock.readLock().unlock();
+        }
+        return frameBuffer;
+    }
+
+    /**
+     * Lays out the document for the given dimensions and takes the area damaged since the last call.
+     * The damage is converted to screen pixels of the viewport, clipped to the dimensions, and
+     * stored in area, which is empty if nothing changed. Everything is damaged when the viewport
+     * changed since the last call. Frames are painted with this viewport until the next call.
+     * Renderers on other threads must hold the read lock.
+     */
+    public void collectDamage(int width, int height, Rectangle area) {
+        layout(width, height);
+        Viewport view = viewport;
+        if (tileCache != null) {
+            tileCache.invalidate(damage);
+        }
+        Rectangle viewDamage = damage.isEmpty() ? damage : view.toView(damage);
+        int left = Math.max(viewDamage.x, 0);
+        int top = Math.max(viewDamage.y, 0);
+        int right = Math.min(viewDamage.x + viewDamage.width, width);
+        int bottom = Math.min(viewDamage.y + viewDamage.height, height);
+        damage.setBounds(0, 0, -1, -1);
+        if (!view.equals(paintViewport)) {
+            paintViewport = view;
+            area.setBounds(0, 0, width, height);
+        }
+        else if (right <= left || bottom <= top) {
+            area.setBounds(0, 0, 0, 0);
+        }
+        else {
+            area.setBounds(left, top, right - left, bottom - top);
+        }
+    }
+
+    /**
+     * Repaints the region of the frame, given in screen pixels of the viewport, by replaying the
+     * display list of the last layout, or by copying tiles with a TileCache. Painting stops early
+     * if an edit starts after the given generation, leaving the region partly painted.
+     * Renderers on other threads must hold the read lock.
+     * @return False if painting was cut short.
+     */
+    public boolean renderRegion(FrameBuffer frame, Rectangle region, long generation) {
+        if (region.isEmpty()) {
+            drawnElements = 0;
+            culledElements = 0;
+            return true;
+        }
+        if (tileCache != null) {
+            return renderTiles(frame, region, generation);
+        }
+        Viewport view = paintViewport;
+        Graphics2D graphics = frame.getImage().createGraphics();
+        try {
+            graphics.setClip(region);
+            graphics.setComposite(AlphaComposite.Clear);
+            graphics.fillRect(region.x, region.y, region.width, region.height);
+            graphics.setComposite(AlphaComposite.SrcOver);
+            if (view.isIdentity()) {
+                return renderRegion(new AwtRenderBackend(graphics), region, generation);
+            }
+            transform(graphics, view);
+            return renderRegion(new AwtRenderBackend(graphics), view.toDocument(region), generation);
+        }
+        finally {
+            graphics.dispose();
+        }
+    }
+
+    /**
+     * Replays the display list of the last layout for the region, given in document pixels, into
+     * a render backend, clipped to the region. The region must already be cleared, and the backend
+     * must already be transformed by the viewport. Painting stops early if an edit starts after
+     * the given generation. Renderers on other threads must hold the read lock.
+     * @return False if painting was cut short.
+     */
+    public boolean renderRegion(RenderBackend backend, Rectangle region, long generation) {
+        if (region.isEmpty()) {
+            drawnElements = 0;
+            culledElements = 0;
+            return true;
+        }
+        startPainting(generation);
+        paintRegion(backend, region);
+        return !paintingCancelled;
+    }
+
+    private void startPainting(long generation) {
+        drawnElements = 0;
+        culledElements = 0;
+        paintedFrames++;
+        paintingGeneration = generation;
+        paintingCancelled = false;
+    }
+
+    private void paintRegion(RenderBackend backend, Rectangle region) {
+        backend.clip(region.x, region.y, region.width, region.height);
+        displayList.replay(backend, region, this);
+    }
+
+    /**
+     * Fills the region of the frame with the tiles of the zoomed document covering it, rendering
+     * the tiles which are not cached yet.
+     * @return False if painting was cut short.
+     */
+    private boolean renderTiles(FrameBuffer frame, Rectangle region, long generation) {
+        Viewport view = paintViewport;
+        double zoom = view.getZoom();
+        int size = TileCache.TILE_SIZE;
+        int scrollX = view.getScrollX(), scrollY = view.getScrollY();
+        int firstColumn = Math.floorDiv(region.x + scrollX, size);
+        int lastColumn = Math.floorDiv(region.x + region.width - 1 + scrollX, size);
+        int firstRow = Math.floorDiv(region.y + scrollY, size);
+        int lastRow = Math.floorDiv(region.y + region.height - 1 + scrollY, size);
+        startPainting(generation);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                BufferedImage tile = tileCache.get(zoom, column, row);
+                if (tile == null) {
+                    tile = renderTile(zoom, column, row);
+                    if (isPaintingCancelled()) {
+                        return false;
+                    }
+                    tileCache.put(zoom, column, row, tile);
+                }
+                Rectangle area = new Rectangle(column*size - scrollX, row*size - scrollY, size, size).intersection(region);
+                int[] tilePixels = ((DataBufferInt)tile.getRaster().getDataBuffer()).getData();
+                int[] framePixels = frame.getPixels();
+                int frameWidth = frame.getWidth();
+                int tileX = area.x - (column*size - scrollX), tileY = area.y - (row*size - scrollY);
+                for (int y = 0; y < area.height; y++) {
+                    System.arraycopy(tilePixels, (tileY + y)*size + tileX, framePixels, (area.y + y)*frameWidth + area.x, area.width);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Paints a tile of the document scaled by the zoom. Drawn and culled elements add to the counts of the frame.
+     */
+    private BufferedImage renderTile(double zoom, int column, int row) {
+        int size = TileCache.TILE_SIZE;
+        BufferedImage tile = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D graphics = tile.createGraphics();
+        try {
+            graphics.translate(-column*size, -row*size);
+            graphics.scale(zoom, zoom);
+            paintRegion(new AwtRenderBackend(graphics), TileCache.documentBounds(zoom, column, row));
+        }
+        finally {
+            graphics.dispose();
+        }
+        return tile;
+    }
+
+    /**
+     * Paints the whole document from the last layout into a frame scaled by the given factor.
+     * Used for quick, low quality frames, so images are scaled with nearest neighbor scaling and
+     * panels may draw prerendered backgrounds of a slightly different size.
+     * Painting stops early if an edit starts after the given generation.
+     * Renderers on other threads must hold the read lock.
+     * @return False if painting was cut short.
+     */
+    public boolean renderScaled(FrameBuffer frame, double scale, long generation) {
+        paintingGeneration = generation;
+        paintingCancelled = false;
+        paintingDraft = true;
+        drawnElements = 0;
+        culledElements = 0;
+        paintedFrames++;
+        Graphics2D graphics = frame.getImage().createGraphics();
+        graphics.setComposite(AlphaComposite.Clear);
+        graphics.fillRect(0, 0, frame.getWidth(), frame.getHeight());
+        graphics.setComposite(AlphaComposite.SrcOver);
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+        graphics.scale(scale, scale);
+        transform(graphics, paintViewport);
+        try {
+            paintRoot(graphics);
+        }
+        finally {
+            paintingDraft = false;
+            graphics.dispose();
+        }
+        return !paintingCancelled;
+    }
+
+    private void paintRoot(Graphics2D graphics) {
+        Rectangle bounds = root.getSubtreeBounds();
+        if (paintingSnapshot && !isInSnapshot(root, true)) {
+            return;
+        }
+        if ((root.subtreeOccluded && isCullingOcclusion()) || !graphics.hitClip(bounds.x, bounds.y, bounds.width, bounds.height)) {
+            culledElements += root.subtreeSize;
+        } else {
+            root.paint(graphics);
+        }
+    }
+
+    /**
+     * Gets the number of elements painted during the last frame. Elements which are only partly
+     * inside the repainted region count as painted.
+     */
+    public int getDrawnElementCount() {
+        return drawnElements;
+    }
+
+    /**
+     * Gets the number of elements skipped during the last frame because they were outside of the
+     * repainted region or hidden behind opaque elements.
+     */
+    public int getCulledElementCount() {
+        return culledElements;
+    }
+
+    void countDrawn(int elements) {
+        drawnElements += elements;
+    }
+
+    void countCulled(int elements) {
+        culledElements += elements;
+    }
+
+    /**
+     * Sets the part of the document shown by frames. The next collected damage covers the whole
+     * frame. May be called from any thread, and takes effect with the next frame.
+     * @throws IllegalArgumentException If the viewport is null.
+     */
+    public void setViewport(Viewport viewport) {
+        if (viewport == null) {
+            throw new IllegalArgumentException("Viewport must not be null");
+        }
+        this.viewport = viewport;
+    }
+
+    public Viewport getViewport() {
+        return viewport;
+    }
+
+    /**
+     * Gets the viewport frames are painted with, which is the viewport when damage was last collected.
+     */
+    public Viewport getPaintViewport() {
+        return paintViewport;
+    }
+
+    /**
+     * Sets the cache of tiles frames are put together from. Frames are painted directly while it is null.
+     * Must not be called while the document is being rendered on another thread.
+     */
+    public void setTileCache(TileCache tileCache) {
+        this.tileCache = tileCache;
+    }
+
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+
+    /**
+     * Transforms the graphics from document pixels to screen pixels of the viewport.
+     */
+    private static void transform(Graphics2D graphics, Viewport view) {
+        if (!view.isIdentity()) {
+            graphics.translate(-view.getScrollX(), -view.getScrollY());
+            graphics.scale(view.getZoom(), view.getZoom());
+        }
+    }
+
+    /**
+     * Gets the draw operations compiled from the last layout.
+     */
+    public DisplayList getDisplayList() {
+        return displayList;
+    }
+
+    /**
+     * Sets the cache used for layers of stable subtrees. Layers are off while the cache is null.
+     * Frames drawn with layers may differ by one in a color channel where translucent elements
+     * overlap. Must not be called while the document is being rendered on another thread.
+     */
+    public void setLayerCache(LayerCache layerCache) {
+        this.layerCache = layerCache;
+    }
+
+    public LayerCache getLayerCache() {
+        return layerCache;
+    }
+
+    /**
+     * Paints the element and its descendants into a new layer and caches it. Elements hidden at
+     * the current position are painted too, since the layer can be drawn elsewhere.
+     * @return The layer or null if it is too large or painting was cut short.
+     */
+    LayerCache.Layer renderLayer(DocumentElement element, long version) {
+        Rectangle bounds = element.getSubtreeBounds(), layout = element.getLayoutBounds();
+        if (bounds.isEmpty() || !layerCache.reserve(bounds.width, bounds.height, paintedFrames)) {
+            return null;
+        }
+        BufferedImage image = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D graphics = image.createGraphics();
+        graphics.translate(-bounds.x, -bounds.y);
+        boolean outerLayer = paintingLayer;
+        paintingLayer = true;
+        try {
+            countDrawn(1);
+            element.render(graphics, layout.x, layout.y, layout.width, layout.height);
+        }
+        finally {
+            paintingLayer = outerLayer;
+            graphics.dispose();
+        }
+        if (isPaintingCancelled()) {
+            return null;
+        }
+        LayerCache.Layer layer = new LayerCache.Layer(image, bounds.x - layout.x, bounds.y - layout.y, 
+            layout.width, layout.height, version);
+        layerCache.put(element, layer, paintedFrames);
+        return layer;
+    }
+
+    /**
+     * Paints the element and its descendants into an image covering their subtree bounds, for
+     * render backends which cannot paint elements themselves. The image is cached with the size
+     * and layer version of the element, the same way as layers, so an unchanged subtree is not
+     * painted again, and backends converting images can reuse their conversion.
+     * @return The image or null if the subtree is empty or painting was cut short.
+     */
+    BufferedImage renderOffscreen(DocumentElement element) {
+        Rectangle bounds = element.getSubtreeBounds(), layout = element.getLayoutBounds();
+        if (bounds.isEmpty()) {
+            return null;
+        }
+        long version = element.getLayerVersion();
+        LayerCache.Layer cached = offscreenCache.get(element, layout.width, layout.height, version, paintedFrames);
+        if (cached != null && cached.offsetX == bounds.x - layout.x && cached.offsetY == bounds.y - layout.y
+                && cached.image.getWidth() == bounds.width && cached.image.getHeight() == bounds.height) {
+            countDrawn(element.subtreeSize);
+            return cached.image;
+        }
+        BufferedImage image = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.translate(-bounds.x, -bounds.y);
+        boolean outerLayer = paintingLayer;
+        paintingLayer = true;
+        try {
+            countDrawn(1);
+            element.render(graphics, layout.x, layout.y, layout.width, layout.height);
+        }
+        finally {
+            paintingLayer = outerLayer;
+            graphics.dispose();
+        }
+        if (isPaintingCancelled()) {
+            return null;
+        }
+        if (offscreenCache.reserve(bounds.width, bounds.height, paintedFrames)) {
+            offscreenCache.put(element, new LayerCache.Layer(image, bounds.x - layout.x, bounds.y - layout.y,
+                layout.width, layout.height, version), paintedFrames);
+        }
         return image;
     }
 
+    boolean isPaintingLayer() {
+        return paintingLayer;
+    }
+
+    /**
+     * Determines if elements hidden behind opaque elements are skipped. Layers and snapshots can be
+     * drawn where other elements cover them, so they paint hidden elements too.
+     */
+    boolean isCullingOcclusion() {
+        return !paintingLayer && !paintingSnapshot;
+    }
+
+    boolean isPaintingSnapshot() {
+        return paintingSnapshot;
+    }
+
+    /**
+     * Determines if the element is painted into the snapshot being painted.
+     * @param subtree Determines if any of the descendants being painted counts too.
+     */
+    boolean isInSnapshot(DocumentElement element, boolean subtree) {
+        int index = element.paintIndex;
+        if (subtree) {
+            return index < snapshotEnd && index + element.subtreeSize > snapshotStart;
+        }
+        return index >= snapshotStart && index < snapshotEnd;
+    }
+
+    /**
+     * Renders the element with its descendants into a frame of their own, and the rest of the
+     * document into a frame of what is painted before the element and a frame of what is painted
+     * after it. The element can then be shown being dragged by drawing the three frames on top of
+     * each other, without rendering the document for every step. The frames are painted through
+     * the current viewport, and the layer at its zoom.
+     * The snapshot is painted while holding the read lock, with the same state as frames, so it must
+     * be taken on the thread which renders the document, like a RenderThread, between frames.
+     * @return The snapshot or null if an edit started while it was painted and cut it short.
+     * @throws IllegalArgumentException If the element is not part of this document.
+     */
+    public DragSnapshot snapshotForDrag(DocumentElement element, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Snapshot dimensions must be positive");
+        }
+        Viewport view = viewport;
+        documentLock.readLock().lock();
+        try {
+            if (elementsById.get(element.getId()) != element) {
+                throw new IllegalArgumentException("Element is not part of this document");
+            }
+            paintingGeneration = editGeneration.get();
+            paintingCancelled = false;
+            layout(width, height);
+            paintingSnapshot = true;
+            try {
+                int start = element.paintIndex, end = start + element.subtreeSize;
+                FrameBuffer background = paintSnapshot(width, height, 0, start, view);
+                FrameBuffer foreground = paintSnapshot(width, height, end, Integer.MAX_VALUE, view);
+                Rectangle layerBounds = new Rectangle(element.getSubtreeBounds());
+                Rectangle elementBounds = new Rectangle(element.getLayoutBounds());
+                layerBounds.width = Math.max(layerBounds.width, 1);
+                layerBounds.height = Math.max(layerBounds.height, 1);
+                double zoom = view.getZoom();
+                FrameBuffer layer = new FrameBuffer((int)Math.ceil(layerBounds.width*zoom), (int)Math.ceil(layerBounds.height*zoom));
+                Graphics2D graphics = layer.getImage().createGraphics();
+                graphics.scale(zoom, zoom);
+                graphics.translate(-layerBounds.x, -layerBounds.y);
+                snapshotStart = start;
+                snapshotEnd = end;
+                element.render(graphics, elementBounds.x, elementBounds.y, elementBounds.width, elementBounds.height);
+                graphics.dispose();
+                if (isPaintingCancelled()) {
+                    return null;
+                }
+                return new DragSnapshot(background, layer, foreground, layerBounds, elementBounds, view);
+            }
+            finally {
+                paintingSnapshot = false;
+            }
+        }
+        finally {
+            documentLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies what the document draws when laid out for the given dimensions into a snapshot, which
+     * can be painted from other threads while the document keeps changing. The snapshot is laid out
+     * on its own, so the layout, caches and frames of the document are left alone, and only the read
+     * lock is held while it is taken. Image files are decoded on the calling thread before that,
+     * and panel backgrounds are prerendered into buffers of the snapshot. Elements which do not
+     * implement DocumentElement.snapshot are left out. Occluded elements are not culled.
+     * @throws IllegalArgumentException If a dimension is not positive.
+     */
+    public RenderSnapshot snapshot(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Snapshot dimensions must be positive");
+        }
+        ArrayList<File> files = new ArrayList<File>();
+        documentLock.readLock().lock();
+        try {
+            collectImageFiles(root, files);
+        }
+        finally {
+            documentLock.readLock().unlock();
+        }
+        HashMap<File, BufferedImage> images = new HashMap<File, BufferedImage>();
+        for (File file : files) {
+            if (!images.containsKey(file)) {
+                images.put(file, ImageCache.getShared().load(file));
+            }
+        }
+        RenderSnapshot snapshot = new RenderSnapshot(width, height, images);
+        documentLock.readLock().lock();
+        try {
+            ScreenCoordinate position = root.getPosition(), size = root.getSize();
+            snapshotSubtree(root, snapshot, position.resolveX(width), position.resolveY(height),
+                size.resolveX(width), size.resolveY(height), new int[4]);
+        }
+        finally {
+            documentLock.readLock().unlock();
+        }
+        return snapshot;
+    }
+
+    private static void collectImageFiles(DocumentElement element, ArrayList<File> files) {
+        element.collectImageFiles(files);
+        for (DocumentElement child : element.children) {
+            collectImageFiles(child, files);
+        }
+    }
+
+    /**
+     * Records the element and then its children in paint order, resolving their bounds within the
+     * given ones like a layout would, without storing them in the elements.
+     */
+    private static void snapshotSubtree(DocumentElement element, RenderSnapshot snapshot, int x, int y, int width, int height, int[] bounds) {
+        element.snapshot(snapshot, x, y, width, height);
+        for (DocumentElement child : element.children) {
+            child.resolveBounds(x, y, width, height, bounds, 0);
+            snapshotSubtree(child, snapshot, bounds[0], bounds[1], bounds[2], bounds[3], bounds);
+        }
+    }
+
+    /**
+     * Gets the number of the frame being painted.
+     */
+    long getPaintedFrames() {
+        return paintedFrames;
+    }
+
+    /**
+     * Determines if the frame being painted is a quick, low quality frame.
+     */
+    boolean isPaintingDraft() {
+        return paintingDraft;
+    }
+
+    /**
+     * Paints the elements with paint order indexes in the given range into a new frame.
+     */
+    private FrameBuffer paintSnapshot(int width, int height, int start, int end, Viewport view) {
+        FrameBuffer frame = new FrameBuffer(width, height);
+        Graphics2D graphics = frame.getImage().createGraphics();
+        transform(graphics, view);
+        snapshotStart = start;
+        snapshotEnd = end;
+        paintRoot(graphics);
+        graphics.dispose();
+        return frame;
+    }
+
+    /**
+     * Checked by elements between painting their children.
+     * @return True if the frame being painted is stale and painting should stop.
+     */
+    boolean isPaintingCancelled() {
+        if (!paintingCancelled && editGeneration.get() != paintingGeneration) {
+            paintingCancelled = true;
+        }
+        return paintingCancelled;
+    }
+
     /**
-     * Removes the given element from the DocumentElement tree.
+     * Makes a change to the document while no other thread lays it out or paints it.
+     * A frame being painted on another thread is cut short. Changes which come up while painting,
+     * like an image finishing loading, must be deferred until the read lock is released.
+     * @throws IllegalStateException If the calling thread holds the read lock, which cannot be
+     * upgraded and may be shared with other threads.
+     */
+    public void edit(Runnable change) {
+        if (documentLock.getReadHoldCount() > 0) {
+            throw new IllegalStateException("Documents cannot be edited while holding the read lock");
+        }
+        editGeneration.incrementAndGet();
+        documentLock.writeLock().lock();
+        try {
+            change.run();
+        }
+        finally {
+            documentLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the lock a renderer on another thread must hold while it lays out and paints.
+     */
+    public Lock getReadLock() {
+        return documentLock.readLock();
+    }
+
+    /**
+     * Gets the current edit generation, which increases whenever an edit starts.
+     */
+    public long getEditGeneration() {
+        return editGeneration.get();
+    }
+
+    /**
+     * Updates the absolute bounds of the elements if anything changed since the last layout.
+     */
+    private void layout(int width, int height) {
+        synchronized (layoutMonitor) {
+            if (isLaidOut(width, height)) {
+                return;
+            }
+            layoutStale = false;
+            layoutWidth = width;
+            layoutHeight = height;
+            paintOrder.clear();
+            ScreenCoordinate position = root.getPosition(), size = root.getSize();
+            root.layout(position.resolveX(width), position.resolveY(height), size.resolveX(width), size.resolveY(height));
+            computeOcclusion();
+            displayList.update(paintOrder);
+        }
+    }
+
+    /**
+     * Determines if the last layout is up to date for the dimensions.
+     */
+    private boolean isLaidOut(int width, int height) {
+        return !layoutStale && width == layoutWidth && height == layoutHeight;
+    }
+
+    /**
+     * Marks the elements whose painted area is covered by a single opaque element painted after them.
+     * Walks the paint order from top to bottom, remembering the largest opaque elements seen so far.
+     */
+    private void computeOcclusion() {
+        int occluderCount = 0;
+        for (int i = paintOrder.size() - 1; i >= 0; i--) {
+            DocumentElement element = paintOrder.get(i);
+            Rectangle painted = element.getPaintedBounds();
+            boolean occluded = false;
+            for (int j = 0; j < occluderCount && !occluded; j++) {
+                occluded = occluders[j].contains(painted);
+            }
+            element.occluded = occluded;
+            // The children come later in the paint order, so they are already marked.
+            boolean subtreeOccluded = occluded;
+            for (DocumentElement child : element.children) {
+                if (!subtreeOccluded) {
+                    break;
+                }
+                subtreeOccluded = child.subtreeOccluded;
+            }
+            element.subtreeOccluded = subtreeOccluded;
+            Rectangle bounds = element.getLayoutBounds();
+            if (bounds.isEmpty() || !element.isOpaque()) {
+                continue;
+            }
+            if (occluderCount < MAX_OCCLUDERS) {
+                occluders[occluderCount++] = bounds;
+                continue;
+            }
+            int smallest = 0;
+            for (int j = 1; j < occluderCount; j++) {
+                if (area(occluders[j]) < area(occluders[smallest])) {
+                    smallest = j;
+                }
+            }
+            if (area(bounds) > area(occluders[smallest])) {
+                occluders[smallest] = bounds;
+            }
+        }
+        for (int j = 0; j < occluderCount; j++) {
+            occluders[j] = null;
+        }
+    }
+
+    private static long area(Rectangle bounds) {
+        return (long)bounds.width*bounds.height;
+    }
+
+    /**
+     * Sets a listener called when the document changes after it was last rendered or selected from.
+     * Used to schedule a redraw for changes which are not made by the user, like images finishing loading.
+     */
+    public void setInvalidationListener(Runnable invalidationListener) {
+        this.invalidationListener = invalidationListener;
+    }
+
+    /**
+     * Called by elements of this document when they change.
+     */
+    void requestLayout() {
+        if (!layoutStale) {
+            layoutStale = true;
+            if (invalidationListener != null) {
+                invalidationListener.run();
+            }
+        }
+    }
+
+    /**
+     * Called during layout for each element in the order they are painted.
+     */
+    void addToPaintOrder(DocumentElement element) {
+        element.paintIndex = paintOrder.size();
+        paintOrder.add(element);
+    }
+
+    /**
+     * Called when an element moved, or when elements were added or removed.
+     */
+    void geometryChanged() {
+        spatialIndex = null;
+    }
+
+    /**
+     * Marks the given area to be repainted on the next render.
+     */
+    void addDamage(Rectangle area) {
+        damage.add(area);
+    }
+
+    /**
+     * Called by elements when they are attached to this document.
+     */
+    void register(DocumentElement element) {
+        elementsById.put(element.getId(), element);
+    }
+
+    /**
+     * Called by elements when they are detached from this document.
+     */
+    void unregister(DocumentElement element) {
+        elementsById.remove(element.getId());
+        offscreenCache.remove(element);
+        if (layerCache != null) {
+            layerCache.remove(element);
+        }
+    }
+
+    /**
+     * Finds the element of this document with the given id.
+     * @return The element or null if no element of this document has the id.
+     */
+    public DocumentElement getElementById(int id) {
+        return elementsById.get(id);
+    }
+
+    /**
+     * Gets the number of elements in the document, including the root.
+     */
+    public int getElementCount() {
+        return elementsById.size();
+    }
+
+    /**
+     * Removes the given element from the DocumentElement tree. The root cannot be removed.
+     * @return True if the element was part of this document and was removed.
      */
     public boolean removeElement(DocumentElement element) {
         if (root == null) {
             throw new RuntimeException("Root node must exist to remove an element");
         }
-        return root.removeChild(element);
+        DocumentElement parent = element.getParent();
+        if (parent == null || elementsById.get(element.getId()) != element) {
+            return false;
+        }
+        return parent.removeChild(element, false);
+    }
+
+    /**
+     * Removes every given element from the DocumentElement tree. Elements which are not part of this
+     * document, or were already removed along with an ancestor, are skipped.
+     * @return The number of elements removed.
+     */
+    public int removeElements(Iterable<DocumentElement> elements) {
+        int removed = 0;
+        for (DocumentElement element : elements) {
+            if (removeElement(element)) {
+                removed++;
+            }
+        }
+        return removed;
     }
 
     /**
-     * Selects the top element from the cursor X and cursor Y.
+     * Selects the top element from the cursor X and cursor Y, given in screen pixels of the
+     * viewport. Elements drawn later are on top.
      */
     public DocumentElement select(int width, int height, int cursorX, int cursorY) {
-        ScreenCoordinate absolutePosition = root.getPosition().toAbsoluteCoordinate(width, height);
-        ScreenCoordinate absoluteSize = root.getSize().toAbsoluteCoordinate(width, height);
-        return root.select(absolutePosition.getPixelsX(), absolutePosition.getPixelsY(), 
-            absoluteSize.getPixelsX(), absoluteSize.getPixelsY(), 
-            cursorX, cursorY);
+        Viewport view = viewport;
+        int x = (int)Math.floor(view.toDocumentX(cursorX)), y = (int)Math.floor(view.toDocumentY(cursorY));
+        documentLock.readLock().lock();
+        try {
+            // Only a renderer, which lays out under the monitor, can change the layout now.
+            synchronized (layoutMonitor) {
+                if (isLaidOut(width, height)) {
+                    return selectLaidOut(x, y);
+                }
+            }
+        }
+        finally {
+            documentLock.readLock().unlock();
+        }
+        DocumentElement[] selection = new DocumentElement[1];
+        // Layout changes the elements, so it must not run during a render on another thread.
+        edit(() -> {
+            layout(width, height);
+            selection[0] = selectLaidOut(x, y);
+        });
+        return selection[0];
+    }
+
+    /**
+     * Selects the top element at the point, in document pixels, from the current layout. The
+     * index is only used by select, so it is built here as well.
+     */
+    private DocumentElement selectLaidOut(int x, int y) {
+        if (spatialIndex == null) {
+            spatialIndex = new SpatialIndex(paintOrder);
+        }
+        return spatialIndex.select(x, y);
     }
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.Rectangle;
+
+/**
+ * Frames used to show an element being dragged without rendering the document again.
+ * The layer is the element with its descendants, which is drawn wherever the element is dragged
+ * to, between the background and the foreground. The background has the elements painted before
+ * the element and the foreground the elements painted after it, so the element stays at its
+ * place in the paint order. The background and foreground are screen pixels of the viewport the
+ * snapshot was taken with.
+ *
+ * Example usage:
+ * <code>
+ * DragSnapshot snapshot = lense.snapshotForDrag(element, 800, 600);
+ * // Draw snapshot.getBackground(), then snapshot.getLayer() at snapshot.getLayerBounds() moved by the drag,
+ * // then snapshot.getForeground()
+ * </code>
+ */
+public class DragSnapshot {
+    private final FrameBuffer background;
+
+    private final FrameBuffer layer;
+
+    private final FrameBuffer foreground;
+
+    private final Rectangle layerBounds;
+
+    private final Rectangle elementBounds;
+
+    private final Viewport viewport;
+
+    DragSnapshot(FrameBuffer background, FrameBuffer layer, FrameBuffer foreground, Rectangle layerBounds, Rectangle elementBounds,
+            Viewport viewport) {
+        this.background = background;
+        this.layer = layer;
+        this.foreground = foreground;
+        this.layerBounds = layerBounds;
+        this.elementBounds = elementBounds;
+        this.viewport = viewport;
+    }
+
+    /**
+     * Gets the elements painted before the element.
+     */
+    public FrameBuffer getBackground() {
+        return background;
+    }
+
+    /**
+     * Gets the elements painted after the element and its descendants.
+     */
+    public FrameBuffer getForeground() {
+        return foreground;
+    }
+
+    /**
+     * Gets the element and its descendants rendered on their own, scaled by the zoom of the viewport.
+     */
+    public FrameBuffer getLayer() {
+        return layer;
+    }
+
+    /**
+     * Gets the absolute area covered by the layer before the drag.
+     */
+    public Rectangle getLayerBounds() {
+        return layerBounds;
+    }
+
+    /**
+     * Gets the absolute layout bounds of the element before the drag.
+     */
+    public Rectangle getElementBounds() {
+        return elementBounds;
+    }
+
+    /**
+     * Gets the viewport the frames were painted through. Bounds are in document pixels.
+     */
+    public Viewport getViewport() {
+        return viewport;
+    }
+}
@@ -0,0 +1,103 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Image a document is rendered into. The pixels are stored in a single int array shared by
+ * the AWT image and anyone displaying the frame, so a frame can be shown without converting it.
+ * Pixels are premultiplied ARGB, one int per pixel, with rows of exactly width pixels.
+ *
+ * Example usage:
+ * <code>
+ * FrameBuffer frame = documentLense.render(800, 600);
+ * Rectangle area = frame.getUpdatedArea();
+ * int offset = area.y*frame.getWidth() + area.x;
+ * // Copy area.width by area.height pixels starting at frame.getPixels()[offset]
+ * </code>
+ */
+public class FrameBuffer {
+    private final BufferedImage image;
+
+    /**
+     * Backing array of image.
+     */
+    private final int[] pixels;
+
+    /**
+     * Area repainted by the last render into this frame.
+     */
+    private final Rectangle updatedArea;
+
+    public FrameBuffer(int width, int height) {
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+        updatedArea = new Rectangle(0, 0, width, height);
+    }
+
+    public int getWidth() {
+        return image.getWidth();
+    }
+
+    public int getHeight() {
+        return image.getHeight();
+    }
+
+    /**
+     * Gets the image drawn into by the renderer.
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Gets the premultiplied ARGB pixels of the image. Changes to the image are visible here immediately.
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Gets the area which changed during the last render. Empty if nothing changed.
+     */
+    public Rectangle getUpdatedArea() {
+        return updatedArea;
+    }
+
+    /**
+     * Fills this frame with the source frame scaled to fit, using nearest neighbor scaling.
+     */
+    public void copyScaled(FrameBuffer source) {
+        int width = getWidth(), height = getHeight();
+        int sourceWidth = source.getWidth(), sourceHeight = source.getHeight();
+        int[] sourcePixels = source.pixels;
+        int[] sourceColumns = new int[width];
+        for (int x = 0; x < width; x++) {
+            sourceColumns[x] = (int)((long)x*sourceWidth/width);
+        }
+        int previousSourceY = -1;
+        for (int y = 0; y < height; y++) {
+            int sourceY = (int)((long)y*sourceHeight/height);
+            int row = y*width;
+            if (sourceY == previousSourceY) {
+                // Same source row as the row above.
+                System.arraycopy(pixels, row - width, pixels, row, width);
+                continue;
+            }
+            int sourceRow = sourceY*sourceWidth;
+            for (int x = 0; x < width; x++) {
+                pixels[row + x] = sourcePixels[sourceRow + sourceColumns[x]];
+            }
+            previousSourceY = sourceY;
+        }
+        updatedArea.setBounds(0, 0, width, height);
+    }
+
+    /**
+     * Determines if this frame can be reused for a render of the given dimensions.
+     */
+    public boolean hasSize(int width, int height) {
+        return image.getWidth() == width && image.getHeight() == height;
+    }
+}
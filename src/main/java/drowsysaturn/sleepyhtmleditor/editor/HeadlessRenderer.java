@@ -0,0 +1,187 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders documents into images without a UI, for thumbnails and previews. The document is copied
+ * into a RenderSnapshot first, without changing its layout or interrupting frames being painted,
+ * and can be edited again as soon as that is done. The image is then
+ * split into tiles which are painted from the snapshot concurrently on a ForkJoinPool, each tile
+ * into a buffer of its own with its own clipped Graphics2D, and copied into the image.
+ *
+ * Tiles are sized so every thread of the pool gets several of them, to balance tiles with a lot of
+ * content against empty ones.
+ *
+ * Example usage:
+ * <code>
+ * HeadlessRenderer renderer = new HeadlessRenderer();
+ * BufferedImage thumbnail = renderer.render(lense, 1280, 800, 0.25);
+ * renderer.writePng(lense, 1280, 800, 1, new File("preview.png"));
+ * </code>
+ */
+public class HeadlessRenderer {
+    /**
+     * Bounds of the width and height of tiles, in pixels of the image.
+     */
+    public static final int MIN_TILE_SIZE = 64, MAX_TILE_SIZE = 256;
+
+    /**
+     * Number of tiles each thread of the pool should get.
+     */
+    private static final int TILES_PER_THREAD = 4;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Makes a renderer which paints tiles on the common pool.
+     */
+    public HeadlessRenderer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @throws IllegalArgumentException If the pool is null.
+     */
+    public HeadlessRenderer(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool must not be null");
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Snapshots the document laid out for the given dimensions and renders it into an image of the same size.
+     * @see render(DocumentLense, int, int, double)
+     */
+    public BufferedImage render(DocumentLense lense, int width, int height) {
+        return render(lense, width, height, 1);
+    }
+
+    /**
+     * Snapshots the document laid out for the given dimensions and renders it scaled. Image files
+     * of panels are decoded by the snapshot, so they are part of the image. The viewport of the
+     * lense is not used.
+     * @return A TYPE_INT_ARGB image of the dimensions times the scale, rounded.
+     * @throws IllegalArgumentException If a dimension or the scale is not positive.
+     */
+    public BufferedImage render(DocumentLense lense, int width, int height, double scale) {
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("Scale must be positive");
+        }
+        return render(lense.snapshot(width, height), scale);
+    }
+
+    /**
+     * Renders a snapshot scaled, painting its tiles on the pool of this renderer.
+     * @return A TYPE_INT_ARGB image of the snapshot dimensions times the scale, rounded.
+     * @throws IllegalArgumentException If the scale is not positive.
+     */
+    public BufferedImage render(RenderSnapshot snapshot, double scale) {
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("Scale must be positive");
+        }
+        int width = Math.max((int)Math.round(snapshot.getWidth()*scale), 1);
+        int height = Math.max((int)Math.round(snapshot.getHeight()*scale), 1);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int tileSize = tileSize(width, height, pool.getParallelism());
+        int columns = (width + tileSize - 1)/tileSize, rows = (height + tileSize - 1)/tileSize;
+        pool.invoke(new TileTask(snapshot, scale, image, tileSize, columns, 0, columns*rows));
+        return image;
+    }
+
+    /**
+     * Renders the document like render and writes the image to a PNG file.
+     * @throws IOException If the file could not be written.
+     * @throws IllegalArgumentException If a dimension or the scale is not positive.
+     */
+    public void writePng(DocumentLense lense, int width, int height, double scale, File file) throws IOException {
+        BufferedImage image = render(lense, width, height, scale);
+        if (!ImageIO.write(image, "png", file)) {
+            throw new IOException("No PNG writer is available");
+        }
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Picks a square tile size which gives every thread a few tiles of the image.
+     */
+    static int tileSize(int width, int height, int parallelism) {
+        double area = (double)width*height/(Math.max(parallelism, 1)*TILES_PER_THREAD);
+        return Math.max(MIN_TILE_SIZE, Math.min(MAX_TILE_SIZE, (int)Math.ceil(Math.sqrt(area))));
+    }
+
+    /**
+     * Paints a range of tiles, in row major order, splitting the range in half until a single tile is left.
+     */
+    private static class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RenderSnapshot snapshot;
+
+        private final double scale;
+
+        private final BufferedImage image;
+
+        private final int tileSize, columns, start, end;
+
+        private TileTask(RenderSnapshot snapshot, double scale, BufferedImage image, int tileSize, int columns, int start, int end) {
+            this.snapshot = snapshot;
+            this.scale = scale;
+            this.image = image;
+            this.tileSize = tileSize;
+            this.columns = columns;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                paintTile(start % columns, start/columns);
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new TileTask(snapshot, scale, image, tileSize, columns, start, middle),
+                new TileTask(snapshot, scale, image, tileSize, columns, middle, end));
+        }
+
+        /**
+         * Paints the tile into a buffer of its own and copies it into its area of the image, which
+         * no other tile writes to.
+         */
+        private void paintTile(int column, int row) {
+            int x = column*tileSize, y = row*tileSize;
+            int width = Math.min(tileSize, image.getWidth() - x), height = Math.min(tileSize, image.getHeight() - y);
+            BufferedImage tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = tile.createGraphics();
+            try {
+                graphics.translate(-x, -y);
+                graphics.scale(scale, scale);
+                int left = (int)Math.floor(x/scale), top = (int)Math.floor(y/scale);
+                int right = (int)Math.ceil((x + width)/scale), bottom = (int)Math.ceil((y + height)/scale);
+                snapshot.paint(graphics, new Rectangle(left, top, right - left, bottom - top));
+            }
+            finally {
+                graphics.dispose();
+            }
+            int[] source = ((DataBufferInt)tile.getRaster().getDataBuffer()).getData();
+            int[] target = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+            int stride = image.getWidth();
+            for (int line = 0; line < height; line++) {
+                System.arraycopy(source, line*width, target, (y + line)*stride + x, width);
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Least recently used cache of decoded images, bounded by the size of the decoded pixels.
+ * Image files are keyed by their canonical path, last modified time, and length, so a file which
+ * changes on disk is decoded again, and panels showing the same file share one decoded image.
+ *
+ * Images can also be decoded on a small pool of worker threads with loadAsync. Requests for the same
+ * file share one decode, which is cancelled once every request for it is cancelled.
+ *
+ * Example usage:
+ * <code>
+ * BufferedImage image = ImageCache.getShared().load(new File("navigation.png"));
+ * ImageCache.ImageRequest request = ImageCache.getShared().loadAsync(new File("photo.jpg"), decoded -> {
+ *     // decoded is null if the file could not be read
+ * });
+ * </code>
+ */
+public class ImageCache extends LruCache<ImageCache.FileKey, BufferedImage> {
+    /**
+     * Default limit of decoded bytes held by the shared cache.
+     */
+    public static final long DEFAULT_MAX_BYTES = 256L*1024*1024;
+
+    /**
+     * Number of threads decoding images for loadAsync.
+     */
+    private static final int DECODER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static final ImageCache shared = new ImageCache(DEFAULT_MAX_BYTES);
+
+    /**
+     * Decodes which have been requested but not finished.
+     */
+    private final HashMap<FileKey, PendingDecode> pendingDecodes = new HashMap<FileKey, PendingDecode>();
+
+    private final ThreadPoolExecutor decoder;
+
+    /**
+     * Used to run the callbacks of loadAsync. Defaults to running them on the decoding thread.
+     */
+    private volatile Executor callbackExecutor = Runnable::run;
+
+    public ImageCache(long maxBytes) {
+        super(maxBytes);
+        decoder = new ThreadPoolExecutor(DECODER_THREADS, DECODER_THREADS, 30, TimeUnit.SECONDS, 
+            new LinkedBlockingQueue<Runnable>(), runnable -> {
+                Thread thread = new Thread(runnable, "Image decoder");
+                thread.setDaemon(true);
+                return thread;
+            });
+        decoder.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Gets the cache shared by every panel of the process.
+     */
+    public static ImageCache getShared() {
+        return shared;
+    }
+
+    /**
+     * Gets the decoded image of the file, decoding it if it is not cached.
+     * @return The image or null if the file could not be read as an image.
+     */
+    public BufferedImage load(File file) {
+        FileKey key = new FileKey(file);
+        BufferedImage image = get(key);
+        if (image != null) {
+            return image;
+        }
+        try {
+            image = ImageIO.read(file);
+        }
+        catch (IOException ex) { }
+        if (image != null) {
+            image = cache(key, image);
+        }
+        return image;
+    }
+
+    /**
+     * Gets the decoded image of the file only if it is already cached. A hit is counted, but a
+     * miss is not, since callers follow a miss with load or loadAsync, which count it when they
+     * start decoding the file.
+     * @return The image or null if it is not cached.
+     */
+    public BufferedImage getIfCached(File file) {
+        FileKey key = new FileKey(file);
+        synchronized (this) {
+            BufferedImage image = find(key);
+            if (image != null) {
+                countHit();
+            }
+            return image;
+        }
+    }
+
+    /**
+     * Decodes the file on a worker thread and passes the image to the callback. The callback gets
+     * null if the file could not be read as an image. Callbacks run on the callback executor, and
+     * never on the calling thread, even if the image is cached, so the caller may hold locks the
+     * callback needs.
+     * @return A request which can be cancelled if the image is no longer needed.
+     */
+    public ImageRequest loadAsync(File file, Consumer<BufferedImage> callback) {
+        FileKey key = new FileKey(file);
+        ImageRequest request = new ImageRequest(key, callback);
+        BufferedImage image;
+        synchronized (this) {
+            image = find(key);
+            if (image != null) {
+                countHit();
+            }
+            else {
+                PendingDecode pending = pendingDecodes.get(key);
+                if (pending == null) {
+                    countMiss();
+                    pending = new PendingDecode();
+                    pendingDecodes.put(key, pending);
+                    pending.future = decoder.submit(() -> decode(file, key));
+                }
+                pending.requests.add(request);
+                return request;
+            }
+        }
+        BufferedImage cached = image;
+        decoder.execute(() -> deliver(request, cached));
+        return request;
+    }
+
+    /**
+     * Sets where callbacks of loadAsync are run, for example on the UI thread. By default they run
+     * on a decoder thread.
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        if (callbackExecutor == null) {
+            throw new IllegalArgumentException("Callback executor must not be null");
+        }
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Runs on a decoder thread for each file requested with loadAsync.
+     */
+    private void decode(File file, FileKey key) {
+        BufferedImage image = null;
+        try {
+            image = ImageIO.read(file);
+        }
+        catch (IOException ex) { }
+        if (image != null) {
+            image = cache(key, image);
+        }
+        PendingDecode pending;
+        synchronized (this) {
+            pending = pendingDecodes.remove(key);
+        }
+        if (pending != null) {
+            for (ImageRequest request : pending.requests) {
+                deliver(request, image);
+            }
+        }
+    }
+
+    private void deliver(ImageRequest request, BufferedImage image) {
+        callbackExecutor.execute(() -> {
+            if (!request.cancelled) {
+                request.callback.accept(image);
+            }
+        });
+    }
+
+    /**
+     * Cancels the request. The decode is cancelled if no other request is waiting for it.
+     */
+    private synchronized void cancel(ImageRequest request) {
+        request.cancelled = true;
+        PendingDecode pending = pendingDecodes.get(request.key);
+        if (pending != null && pending.requests.remove(request) && pending.requests.isEmpty()) {
+            pendingDecodes.remove(request.key);
+            pending.future.cancel(false);
+        }
+    }
+
+    /**
+     * Caches the image unless another thread cached the same key first.
+     * @return The cached image for the key.
+     */
+    private synchronized BufferedImage cache(FileKey key, BufferedImage image) {
+        BufferedImage existing = find(key);
+        if (existing != null) {
+            return existing;
+        }
+        put(key, image);
+        return image;
+    }
+
+    @Override
+    protected long bytesOf(BufferedImage image) {
+        return sizeOf(image);
+    }
+
+    /**
+     * An image requested with loadAsync.
+     */
+    public class ImageRequest {
+        private final FileKey key;
+
+        private final Consumer<BufferedImage> callback;
+
+        private volatile boolean cancelled = false;
+
+        private ImageRequest(FileKey key, Consumer<BufferedImage> callback) {
+            this.key = key;
+            this.callback = callback;
+        }
+
+        /**
+         * Stops the callback from being called. Has no effect after the callback ran.
+         */
+        public void cancel() {
+            ImageCache.this.cancel(this);
+        }
+    }
+
+    /**
+     * A decode shared by every request for the same file.
+     */
+    private static class PendingDecode {
+        private Future<?> future;
+
+        private final ArrayList<ImageRequest> requests = new ArrayList<ImageRequest>();
+    }
+
+    /**
+     * Identifies a version of an image file.
+     */
+    static class FileKey {
+        private final String path;
+        private final long lastModified;
+        private final long length;
+
+        private FileKey(File file) {
+            String path;
+            try {
+                path = file.getCanonicalPath();
+            }
+            catch (IOException ex) {
+                path = file.getAbsolutePath();
+            }
+            this.path = path;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof FileKey)) {
+                return false;
+            }
+            FileKey key = (FileKey)other;
+            return path.equals(key.path) && lastModified == key.lastModified && length == key.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode()*31 + Long.hashCode(lastModified*31 + length);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Least recently used cache of layers, bounded by the size of their pixels. A layer is a bitmap of
+ * an element and all of its descendants, painted relative to the element. It stays valid while the
+ * size and the content version of the element are unchanged, so an element which only moved is
+ * drawn by copying its layer to the new position instead of painting the whole subtree again.
+ *
+ * Layers are only made for subtrees which moved without changing since they were last painted,
+ * and which are worth caching, like panels with children or text. A layer is at most a quarter
+ * of the cache. Layers drawn in the frame being painted are never evicted to make room for a new
+ * one, so a frame with more moving layers than fit keeps the ones it has instead of repainting
+ * all of them over and over.
+ *
+ * Layers are not pixel-exact. Translucent content of a subtree is composited into the transparent
+ * layer first and the layer onto the frame afterwards, which rounds differently than compositing
+ * each element onto the frame, so a color channel may differ by one where translucent elements
+ * overlap.
+ *
+ * Example usage:
+ * <code>
+ * lense.setLayerCache(new LayerCache(LayerCache.DEFAULT_MAX_BYTES));
+ * </code>
+ */
+public class LayerCache extends LruCache<DocumentElement, LayerCache.Layer> {
+    /**
+     * Default limit of bytes held by a cache.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L*1024*1024;
+
+    public LayerCache(long maxBytes) {
+        super(maxBytes);
+    }
+
+    /**
+     * Gets the layer of the element if it was made for the same size and content version, marking
+     * it as drawn in the given frame. An outdated layer is dropped.
+     */
+    synchronized Layer get(DocumentElement element, int width, int height, long version, long frame) {
+        Layer layer = find(element);
+        if (layer != null && layer.width == width && layer.height == height && layer.version == version) {
+            layer.drawnFrame = frame;
+            countHit();
+            return layer;
+        }
+        if (layer != null) {
+            remove(element);
+        }
+        countMiss();
+        return null;
+    }
+
+    /**
+     * Makes room for a layer with the given dimensions, evicting least recently used layers which
+     * were not drawn in the given frame.
+     * @return False if the layer is too large or the cache is full of layers drawn in the frame.
+     */
+    synchronized boolean reserve(int width, int height, long frame) {
+        long size = (long)width*height*4;
+        if (size > getMaxBytes()/4) {
+            return false;
+        }
+        // Stops at the first layer drawn in the frame, since every remaining layer was drawn more recently.
+        return makeRoom(size, layer -> layer.drawnFrame != frame);
+    }
+
+    /**
+     * Caches the layer of the element after room was reserved for it, marking it as drawn in the given frame.
+     */
+    synchronized void put(DocumentElement element, Layer layer, long frame) {
+        layer.drawnFrame = frame;
+        put(element, layer);
+    }
+
+    @Override
+    protected long bytesOf(Layer layer) {
+        return sizeOf(layer.image);
+    }
+
+    /**
+     * Bitmap of an element and its descendants.
+     */
+    static class Layer {
+        final BufferedImage image;
+
+        /**
+         * Position of the bitmap relative to the layout bounds of the element.
+         */
+        final int offsetX, offsetY;
+
+        /**
+         * Size of the element the layer was made for.
+         */
+        final int width, height;
+
+        final long version;
+
+        /**
+         * Last frame in which the layer was drawn.
+         */
+        long drawnFrame;
+
+        Layer(BufferedImage image, int offsetX, int offsetY, int width, int height, long version) {
+            this.image = image;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            this.width = width;
+            this.height = height;
+            this.version = version;
+        }
+    }
+}
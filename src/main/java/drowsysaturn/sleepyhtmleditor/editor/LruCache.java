@@ -0,0 +1,201 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Least recently used cache bounded by the number of bytes held by its entries. Subclasses choose
+ * the keys, build the entries, and tell how many bytes an entry holds, while this class keeps the
+ * entries in least to most recently used order, evicts them when the limit is exceeded, and counts
+ * hits, misses, and evictions.
+ *
+ * Every method synchronizes on the cache, so subclasses can synchronize on it as well to combine
+ * several calls into one step.
+ *
+ * Example usage:
+ * <code>
+ * class ThumbnailCache extends LruCache&lt;File, BufferedImage&gt; {
+ *     ThumbnailCache() {
+ *         super(16L*1024*1024);
+ *     }
+ *
+ *     protected long bytesOf(BufferedImage thumbnail) {
+ *         return LruCache.sizeOf(thumbnail);
+ *     }
+ * }
+ * </code>
+ */
+public abstract class LruCache<K, V> {
+    /**
+     * Entries in least to most recently used order.
+     */
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<K, V>(16, 0.75f, true);
+
+    private long maxBytes;
+
+    private long usedBytes = 0;
+
+    private long hits = 0, misses = 0, evictions = 0;
+
+    protected LruCache(long maxBytes) {
+        setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Gets the number of bytes held by an entry, which must not change while it is cached.
+     */
+    protected abstract long bytesOf(V value);
+
+    /**
+     * Gets the number of bytes used by the pixels of the image.
+     */
+    public static long sizeOf(BufferedImage image) {
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        return (long)dataBuffer.getSize()*dataBuffer.getNumBanks()*DataBuffer.getDataTypeSize(dataBuffer.getDataType())/8;
+    }
+
+    /**
+     * Gets the entry of the key, marking it as the most recently used, and counts a hit or a miss.
+     * @return The entry or null if it was never cached or was evicted.
+     */
+    protected synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    /**
+     * Gets the entry of the key like get, but leaves counting to the caller.
+     */
+    protected synchronized V find(K key) {
+        return entries.get(key);
+    }
+
+    protected synchronized void countHit() {
+        hits++;
+    }
+
+    protected synchronized void countMiss() {
+        misses++;
+    }
+
+    /**
+     * Caches the entry in place of the previous one of the key, evicting least recently used
+     * entries if needed. An entry larger than the whole cache is not kept.
+     * @return False if the entry was too large to be kept.
+     */
+    protected synchronized boolean put(K key, V value) {
+        remove(key);
+        long size = bytesOf(value);
+        if (size > maxBytes) {
+            return false;
+        }
+        entries.put(key, value);
+        usedBytes += size;
+        makeRoom(0, null);
+        return true;
+    }
+
+    /**
+     * Drops the entry of the key.
+     * @return The entry or null if there was none.
+     */
+    protected synchronized V remove(K key) {
+        V value = entries.remove(key);
+        if (value != null) {
+            usedBytes -= bytesOf(value);
+        }
+        return value;
+    }
+
+    /**
+     * Drops every entry which matches the filter. Dropped entries are not counted as evictions.
+     * @return The number of entries dropped.
+     */
+    protected synchronized int removeIf(Predicate<? super V> filter) {
+        int removed = 0;
+        Iterator<V> i = entries.values().iterator();
+        while (i.hasNext()) {
+            V value = i.next();
+            if (filter.test(value)) {
+                usedBytes -= bytesOf(value);
+                i.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Evicts least recently used entries until the given number of bytes fits in addition to the
+     * entries left. Stops at the first entry the filter keeps, if a filter is given.
+     * @return True if the bytes fit.
+     */
+    protected synchronized boolean makeRoom(long bytes, Predicate<? super V> evictable) {
+        Iterator<V> i = entries.values().iterator();
+        while (usedBytes + bytes > maxBytes && i.hasNext()) {
+            V eldest = i.next();
+            if (evictable != null && !evictable.test(eldest)) {
+                return false;
+            }
+            usedBytes -= bytesOf(eldest);
+            i.remove();
+            evictions++;
+        }
+        return usedBytes + bytes <= maxBytes;
+    }
+
+    /**
+     * Sets the limit of bytes held by this cache, evicting entries if needed.
+     * @throws IllegalArgumentException If the limit is negative.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative");
+        }
+        this.maxBytes = maxBytes;
+        makeRoom(0, null);
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the number of bytes currently held by this cache.
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Removes every entry from the cache. Counters are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+}
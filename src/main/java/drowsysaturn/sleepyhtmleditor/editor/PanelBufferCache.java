@@ -0,0 +1,42 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Least recently used cache of the prerendered backgrounds of panels, bounded by the size of their
+ * pixels. Every panel of the process shares one budget, so a large document keeps the buffers of
+ * the panels drawn most recently and prerenders the others again when they are drawn.
+ *
+ * Panels which are only a solid color never prerender a buffer, and buffers of opaque panels
+ * have no alpha channel, which makes drawing them a plain copy.
+ *
+ * Example usage:
+ * <code>
+ * PanelBufferCache.getShared().setMaxBytes(32L*1024*1024);
+ * long used = PanelBufferCache.getShared().getUsedBytes();
+ * </code>
+ */
+public class PanelBufferCache extends LruCache<StandardPanel, BufferedImage> {
+    /**
+     * Default limit of bytes held by the shared cache.
+     */
+    public static final long DEFAULT_MAX_BYTES = 128L*1024*1024;
+
+    private static final PanelBufferCache shared = new PanelBufferCache(DEFAULT_MAX_BYTES);
+
+    public PanelBufferCache(long maxBytes) {
+        super(maxBytes);
+    }
+
+    /**
+     * Gets the cache shared by every panel of the process.
+     */
+    public static PanelBufferCache getShared() {
+        return shared;
+    }
+
+    @Override
+    protected long bytesOf(BufferedImage buffer) {
+        return sizeOf(buffer);
+    }
+}
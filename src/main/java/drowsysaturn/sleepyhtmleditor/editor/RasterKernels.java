@@ -0,0 +1,233 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Loops which fill, blend, and tile pixels directly in the int arrays of images, instead of going
+ * through the generic Java2D loops one draw call at a time. Pixels are ARGB, not premultiplied,
+ * as in TYPE_INT_ARGB and TYPE_INT_RGB images. Blending rounds exactly like Java2D does, so the
+ * result is the same as drawing with a Graphics.
+ *
+ * The loops are kept simple, with fills and copies done by Arrays.fill and System.arraycopy, so
+ * the JIT compiler can vectorize them. The Vector API is not used, because it is an incubator
+ * module, which the build, the tests, and every launch of the editor would have to add with
+ * --add-modules.
+ *
+ * Example usage:
+ * <code>
+ * if (RasterKernels.isSupported(buffer) &amp;&amp; RasterKernels.isSupported(tile)) {
+ *     RasterKernels.fill(buffer, 0xffffffff);
+ *     RasterKernels.drawOver(buffer, tile, 0, 0);
+ *     RasterKernels.repeat(buffer, tile.getWidth(), tile.getHeight());
+ * }
+ * </code>
+ */
+public class RasterKernels {
+    /**
+     * MUL8[a*256 + b] is a*b/255 rounded, and DIV8[a*256 + b] is b*255/a rounded and at most 255,
+     * computed the same way as the tables of Java2D.
+     */
+    private static final byte[] MUL8 = new byte[256*256];
+
+    private static final byte[] DIV8 = new byte[256*256];
+
+    static {
+        for (int i = 1; i < 256; i++) {
+            int increment = (i << 16) + (i << 8) + i;
+            int value = increment + (1 << 23);
+            for (int j = 1; j < 256; j++) {
+                MUL8[i*256 + j] = (byte)(value >>> 24);
+                value += increment;
+            }
+        }
+        for (int i = 1; i < 256; i++) {
+            long increment = ((0xffL << 24) + i/2)/i;
+            long value = 1 << 23;
+            for (int j = 0; j < 256; j++) {
+                DIV8[i*256 + j] = j < i ? (byte)(value >>> 24) : (byte)255;
+                value += increment;
+            }
+        }
+    }
+
+    /**
+     * Determines if the kernels can work on the pixels of the image. Only TYPE_INT_ARGB and
+     * TYPE_INT_RGB images whose pixels start at the beginning of their array are supported.
+     */
+    public static boolean isSupported(BufferedImage image) {
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_INT_ARGB && type != BufferedImage.TYPE_INT_RGB) {
+            return false;
+        }
+        WritableRaster raster = image.getRaster();
+        return raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+            && raster.getDataBuffer().getOffset() == 0 && raster.getSampleModel() instanceof SinglePixelPackedSampleModel;
+    }
+
+    /**
+     * Fills a new image, which is still fully transparent, with the color as if drawn with fillRect.
+     * @param argb Color which is not premultiplied.
+     */
+    public static void fill(BufferedImage image, int argb) {
+        boolean alpha = image.getType() == BufferedImage.TYPE_INT_ARGB;
+        int value = alpha ? over(argb, 0) : overOpaque(argb, 0);
+        int[] pixels = pixelsOf(image);
+        fill(pixels, strideOf(image), 0, 0, image.getWidth(), image.getHeight(), value);
+    }
+
+    /**
+     * Sets every pixel of the rectangle to the value. The first row is filled, and every other row
+     * is copied from the rows above it.
+     */
+    public static void fill(int[] pixels, int stride, int x, int y, int width, int height, int value) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        int first = y*stride + x;
+        Arrays.fill(pixels, first, first + width, value);
+        for (int row = 1; row < height; row++) {
+            System.arraycopy(pixels, first, pixels, first + row*stride, width);
+        }
+    }
+
+    /**
+     * Draws the source image over the target at the given position with source over blending,
+     * clipped to the target, the same as Graphics.drawImage without scaling.
+     */
+    public static void drawOver(BufferedImage target, BufferedImage source, int x, int y) {
+        int left = Math.max(x, 0), top = Math.max(y, 0);
+        int right = Math.min(x + source.getWidth(), target.getWidth());
+        int bottom = Math.min(y + source.getHeight(), target.getHeight());
+        if (right <= left || bottom <= top) {
+            return;
+        }
+        int targetStride = strideOf(target), sourceStride = strideOf(source);
+        blendOver(pixelsOf(target), top*targetStride + left, targetStride, target.getType() == BufferedImage.TYPE_INT_ARGB,
+            pixelsOf(source), (top - y)*sourceStride + left - x, sourceStride, source.getType() == BufferedImage.TYPE_INT_ARGB,
+            right - left, bottom - top);
+    }
+
+    /**
+     * Blends a rectangle of source pixels over target pixels.
+     * @param targetAlpha The target has an alpha channel. Otherwise it is opaque.
+     * @param sourceAlpha The source has an alpha channel. Otherwise it is opaque and simply copied.
+     */
+    public static void blendOver(int[] target, int targetOffset, int targetStride, boolean targetAlpha,
+            int[] source, int sourceOffset, int sourceStride, boolean sourceAlpha, int width, int height) {
+        for (int row = 0; row < height; row++) {
+            int t = targetOffset + row*targetStride, s = sourceOffset + row*sourceStride;
+            if (!sourceAlpha) {
+                System.arraycopy(source, s, target, t, width);
+                if (targetAlpha) {
+                    for (int i = t, end = t + width; i < end; i++) {
+                        target[i] |= 0xff000000;
+                    }
+                }
+                continue;
+            }
+            for (int end = s + width; s < end; s++, t++) {
+                int pixel = source[s];
+                int alpha = pixel >>> 24;
+                if (alpha == 0xff) {
+                    target[t] = pixel;
+                } else if (alpha != 0) {
+                    target[t] = targetAlpha ? over(pixel, target[t]) : overOpaque(pixel, target[t]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Repeats the rectangle of the given size at the top left corner of the image over the whole image.
+     */
+    public static void repeat(BufferedImage image, int tileWidth, int tileHeight) {
+        repeat(pixelsOf(image), strideOf(image), image.getWidth(), image.getHeight(), tileWidth, tileHeight);
+    }
+
+    /**
+     * Repeats the tile at the top left corner of the area over the whole area. Every row of the
+     * first band of tiles is extended by copying what is already filled, doubling the copied
+     * length each time, and the bands below are copied from the rows above them the same way.
+     */
+    public static void repeat(int[] pixels, int stride, int width, int height, int tileWidth, int tileHeight) {
+        if (tileWidth <= 0 || tileHeight <= 0) {
+            return;
+        }
+        int bandHeight = Math.min(tileHeight, height);
+        for (int row = 0; row < bandHeight; row++) {
+            int start = row*stride;
+            for (int filled = Math.min(tileWidth, width); filled < width; filled *= 2) {
+                System.arraycopy(pixels, start, pixels, start + filled, Math.min(filled, width - filled));
+            }
+        }
+        for (int filled = bandHeight; filled < height; filled *= 2) {
+            int rows = Math.min(filled, height - filled);
+            if (stride == width) {
+                System.arraycopy(pixels, 0, pixels, filled*stride, rows*stride);
+            } else {
+                for (int row = 0; row < rows; row++) {
+                    System.arraycopy(pixels, row*stride, pixels, (filled + row)*stride, width);
+                }
+            }
+        }
+    }
+
+    /**
+     * Blends a pixel over a pixel which may be translucent.
+     */
+    static int over(int source, int target) {
+        int sourceAlpha = source >>> 24;
+        if (sourceAlpha == 0xff) {
+            return source;
+        }
+        if (sourceAlpha == 0) {
+            return target;
+        }
+        int targetFactor = mul8(0xff - sourceAlpha, target >>> 24);
+        int alpha = sourceAlpha + targetFactor;
+        int red = mul8(sourceAlpha, (source >> 16) & 0xff) + mul8(targetFactor, (target >> 16) & 0xff);
+        int green = mul8(sourceAlpha, (source >> 8) & 0xff) + mul8(targetFactor, (target >> 8) & 0xff);
+        int blue = mul8(sourceAlpha, source & 0xff) + mul8(targetFactor, target & 0xff);
+        if (alpha < 0xff) {
+            red = div8(alpha, red);
+            green = div8(alpha, green);
+            blue = div8(alpha, blue);
+        }
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Blends a pixel over an opaque pixel.
+     */
+    static int overOpaque(int source, int target) {
+        int sourceAlpha = source >>> 24;
+        if (sourceAlpha == 0xff) {
+            return source;
+        }
+        int targetFactor = 0xff - sourceAlpha;
+        int red = mul8(sourceAlpha, (source >> 16) & 0xff) + mul8(targetFactor, (target >> 16) & 0xff);
+        int green = mul8(sourceAlpha, (source >> 8) & 0xff) + mul8(targetFactor, (target >> 8) & 0xff);
+        int blue = mul8(sourceAlpha, source & 0xff) + mul8(targetFactor, target & 0xff);
+        return 0xff000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    private static int mul8(int a, int b) {
+        return MUL8[(a << 8) | b] & 0xff;
+    }
+
+    private static int div8(int a, int b) {
+        return DIV8[(a << 8) | b] & 0xff;
+    }
+
+    private static int[] pixelsOf(BufferedImage image) {
+        return ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+    }
+
+    private static int strideOf(BufferedImage image) {
+        return ((SinglePixelPackedSampleModel)image.getRaster().getSampleModel()).getScanlineStride();
+    }
+}
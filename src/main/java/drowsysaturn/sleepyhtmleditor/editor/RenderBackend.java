@@ -0,0 +1,47 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+
+/**
+ * Target which a DisplayList is replayed into. Display lists only fill rectangles, draw images and
+ * lines of text, and clip, so a document can be drawn by anything which does those four things,
+ * like a Graphics of an image or a JavaFX canvas.
+ *
+ * Elements which paint themselves with render, and layers of stable subtrees, need a Graphics.
+ * Backends without one get them as images instead.
+ *
+ * Example usage:
+ * <code>
+ * RenderBackend backend = new AwtRenderBackend(image.createGraphics());
+ * lense.renderRegion(backend, region, lense.getEditGeneration());
+ * </code>
+ */
+public interface RenderBackend {
+    /**
+     * Fills the rectangle with the color.
+     */
+    void fillRect(int x, int y, int width, int height, Color color);
+
+    /**
+     * Draws the image scaled to the rectangle.
+     */
+    void drawImage(BufferedImage image, int x, int y, int width, int height);
+
+    /**
+     * Draws characters with their baseline starting at x and y.
+     */
+    void drawText(char[] chars, int start, int length, int x, int y, Font font, Color color);
+
+    /**
+     * Restricts further drawing to the part of the rectangle inside of the current clip.
+     */
+    void clip(int x, int y, int width, int height);
+
+    /**
+     * Gets a Graphics which draws to the same target, or null if there is none.
+     */
+    Graphics getGraphics();
+}
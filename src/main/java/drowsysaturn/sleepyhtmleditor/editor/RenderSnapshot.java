@@ -0,0 +1,173 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Draw operations of a whole document, recorded by its elements through DocumentElement.snapshot,
+ * which no longer refer to the elements. Images are prepared and text lines are copied when the
+ * snapshot is taken, so it does not change afterwards and can be painted from any number of
+ * threads at once while the document is being edited.
+ *
+ * Operations are stored as parallel arrays in paint order, each with the rectangle it may
+ * touch, so painting a region skips the operations outside of it.
+ *
+ * Example usage:
+ * <code>
+ * RenderSnapshot snapshot = lense.snapshot(1280, 800);
+ * Graphics2D graphics = image.createGraphics();
+ * snapshot.paint(graphics, new Rectangle(0, 0, 256, 256));
+ * </code>
+ */
+public class RenderSnapshot {
+    private static final byte OP_FILL = 0;
+    private static final byte OP_IMAGE = 1;
+    private static final byte OP_TEXT = 2;
+
+    private final int width, height;
+
+    private byte[] types = new byte[64];
+
+    /**
+     * Area touched by each operation. Fills and images are drawn to exactly this rectangle.
+     */
+    private int[] xs = new int[64], ys = new int[64], widths = new int[64], heights = new int[64];
+
+    /**
+     * Start of the baseline of text.
+     */
+    private int[] textXs = new int[64], textYs = new int[64];
+
+    private Color[] colors = new Color[64];
+
+    private BufferedImage[] images = new BufferedImage[64];
+
+    private char[][] texts = new char[64][];
+
+    private Font[] fonts = new Font[64];
+
+    private int count = 0;
+
+    /**
+     * Images decoded for the image files of the document before the snapshot was taken. A null
+     * value means the file could not be decoded.
+     */
+    private final Map<File, BufferedImage> decodedImages;
+
+    RenderSnapshot(int width, int height, Map<File, BufferedImage> decodedImages) {
+        this.width = width;
+        this.height = height;
+        this.decodedImages = decodedImages;
+    }
+
+    /**
+     * Gets the width of the document layout the snapshot was taken of.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the height of the document layout the snapshot was taken of.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of operations in the snapshot.
+     */
+    public int getOpCount() {
+        return count;
+    }
+
+    /**
+     * Gets the image decoded for the file while the snapshot is taken, or the one in ImageCache
+     * for files added to the document since, or null if there is none.
+     */
+    public BufferedImage getImage(File file) {
+        if (decodedImages.containsKey(file)) {
+            return decodedImages.get(file);
+        }
+        return ImageCache.getShared().getIfCached(file);
+    }
+
+    public void addFill(int x, int y, int width, int height, Color color) {
+        int op = add(OP_FILL, x, y, width, height);
+        colors[op] = color;
+    }
+
+    /**
+     * Adds an image drawn to the rectangle. The image must not change afterwards.
+     */
+    public void addImage(BufferedImage image, int x, int y, int width, int height) {
+        int op = add(OP_IMAGE, x, y, width, height);
+        images[op] = image;
+    }
+
+    /**
+     * Adds a line of text with its baseline starting at textX and textY, which only touches the
+     * given area. The text must not change afterwards.
+     */
+    public void addText(char[] text, int textX, int textY, Font font, Color color, Rectangle area) {
+        int op = add(OP_TEXT, area.x, area.y, area.width, area.height);
+        textXs[op] = textX;
+        textYs[op] = textY;
+        texts[op] = text;
+        fonts[op] = font;
+        colors[op] = color;
+    }
+
+    /**
+     * Draws the operations which touch the region, given in document pixels, clipped to the
+     * region. The graphics may be transformed, for example scaled for a thumbnail. Only reads the
+     * snapshot, so any number of threads can paint it at once, each with its own graphics.
+     */
+    public void paint(Graphics graphics, Rectangle region) {
+        int left = region.x, top = region.y, right = region.x + region.width, bottom = region.y + region.height;
+        AwtRenderBackend backend = new AwtRenderBackend(graphics);
+        backend.clip(region.x, region.y, region.width, region.height);
+        for (int op = 0; op < count; op++) {
+            int x = xs[op], y = ys[op], opWidth = widths[op], opHeight = heights[op];
+            if (x >= right || y >= bottom || x + opWidth <= left || y + opHeight <= top) {
+                continue;
+            }
+            if (types[op] == OP_FILL) {
+                backend.fillRect(x, y, opWidth, opHeight, colors[op]);
+            } else if (types[op] == OP_IMAGE) {
+                backend.drawImage(images[op], x, y, opWidth, opHeight);
+            } else {
+                backend.drawText(texts[op], 0, texts[op].length, textXs[op], textYs[op], fonts[op], colors[op]);
+            }
+        }
+    }
+
+    private int add(byte type, int x, int y, int width, int height) {
+        if (count == types.length) {
+            int grown = count*2;
+            types = Arrays.copyOf(types, grown);
+            xs = Arrays.copyOf(xs, grown);
+            ys = Arrays.copyOf(ys, grown);
+            widths = Arrays.copyOf(widths, grown);
+            heights = Arrays.copyOf(heights, grown);
+            textXs = Arrays.copyOf(textXs, grown);
+            textYs = Arrays.copyOf(textYs, grown);
+            colors = Arrays.copyOf(colors, grown);
+            images = Arrays.copyOf(images, grown);
+            texts = Arrays.copyOf(texts, grown);
+            fonts = Arrays.copyOf(fonts, grown);
+        }
+        types[count] = type;
+        xs[count] = x;
+        ys[count] = y;
+        widths[count] = width;
+        heights[count] = height;
+        return count++;
+    }
+}
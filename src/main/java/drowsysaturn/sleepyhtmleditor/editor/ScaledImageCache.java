@@ -0,0 +1,184 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Least recently used cache of downscaled copies of images, bounded by the size of the scaled pixels.
+ * Every image gets a mip pyramid made by repeatedly halving it. A scaled copy is made from the
+ * smallest level still larger than the requested size, and requested sizes are rounded up to
+ * buckets, so resizing a panel by a few pixels reuses the same copy and only the final,
+ * cheap scale to the exact size is redone.
+ *
+ * Sources are only referenced weakly, so the cache never keeps a full size image in memory which
+ * ImageCache evicted. Copies of a source are dropped once it is collected.
+ *
+ * Example usage:
+ * <code>
+ * BufferedImage scaled = ScaledImageCache.getShared().getScaled(image, width, height);
+ * graphics.drawImage(scaled, 0, 0, width, height, null);
+ * </code>
+ */
+public class ScaledImageCache extends LruCache<ScaledImageCache.ScaledKey, BufferedImage> {
+    /**
+     * Default limit of scaled bytes held by the shared cache.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L*1024*1024;
+
+    /**
+     * Smallest difference between two bucket sizes in pixels.
+     */
+    private static final int MIN_BUCKET_STEP = 8;
+
+    private static final ScaledImageCache shared = new ScaledImageCache(DEFAULT_MAX_BYTES);
+
+    /**
+     * Keys of cached copies whose source was collected.
+     */
+    private final ReferenceQueue<BufferedImage> collectedSources = new ReferenceQueue<BufferedImage>();
+
+    public ScaledImageCache(long maxBytes) {
+        super(maxBytes);
+    }
+
+    /**
+     * Gets the cache shared by every panel of the process.
+     */
+    public static ScaledImageCache getShared() {
+        return shared;
+    }
+
+    /**
+     * Gets a copy of the image no smaller than the given size and at most one bucket larger.
+     * Returns the image itself if the size is not smaller than the image.
+     */
+    public BufferedImage getScaled(BufferedImage source, int width, int height) {
+        int sourceWidth = source.getWidth(), sourceHeight = source.getHeight();
+        if (width <= 0 || height <= 0 || (width >= sourceWidth && height >= sourceHeight)) {
+            return source;
+        }
+        int bucketWidth = Math.min(bucket(width), sourceWidth);
+        int bucketHeight = Math.min(bucket(height), sourceHeight);
+        BufferedImage scaled = get(source, bucketWidth, bucketHeight);
+        if (scaled != null) {
+            return scaled;
+        }
+        BufferedImage level = nearestLevel(source, bucketWidth, bucketHeight);
+        if (level.getWidth() == bucketWidth && level.getHeight() == bucketHeight) {
+            return level;
+        }
+        return put(source, bucketWidth, bucketHeight, scale(level, bucketWidth, bucketHeight));
+    }
+
+    /**
+     * Rounds the size up to the next bucket. Buckets are about an eighth of the size apart.
+     */
+    private static int bucket(int size) {
+        int step = Math.max(MIN_BUCKET_STEP, Integer.highestOneBit(size)/8);
+        return (size + step - 1)/step*step;
+    }
+
+    /**
+     * Finds the smallest mip level of the source which is at least the given size, creating levels as needed.
+     */
+    private BufferedImage nearestLevel(BufferedImage source, int width, int height) {
+        BufferedImage level = source;
+        while (true) {
+            int levelWidth = (level.getWidth() + 1)/2, levelHeight = (level.getHeight() + 1)/2;
+            if (levelWidth < width || levelHeight < height) {
+                return level;
+            }
+            BufferedImage next = get(source, levelWidth, levelHeight);
+            if (next == null) {
+                next = put(source, levelWidth, levelHeight, scale(level, levelWidth, levelHeight));
+            }
+            level = next;
+        }
+    }
+
+    /**
+     * Scales the image with bilinear filtering.
+     */
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        int type = image.getTransparency() == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage scaled = new BufferedImage(width, height, type);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+        return scaled;
+    }
+
+    private synchronized BufferedImage get(BufferedImage source, int width, int height) {
+        removeCollected();
+        return get(new ScaledKey(source, width, height, null));
+    }
+
+    /**
+     * Caches the scaled image unless another thread cached the same key first.
+     * @return The cached image for the key.
+     */
+    private synchronized BufferedImage put(BufferedImage source, int width, int height, BufferedImage scaled) {
+        removeCollected();
+        ScaledKey key = new ScaledKey(source, width, height, collectedSources);
+        BufferedImage existing = find(key);
+        if (existing != null) {
+            return existing;
+        }
+        put(key, scaled);
+        return scaled;
+    }
+
+    /**
+     * Drops the copies of sources which were collected.
+     */
+    private void removeCollected() {
+        Object key;
+        while ((key = collectedSources.poll()) != null) {
+            remove((ScaledKey)key);
+        }
+    }
+
+    @Override
+    protected long bytesOf(BufferedImage scaled) {
+        return sizeOf(scaled);
+    }
+
+    /**
+     * Identifies a scaled copy of a source image. Sources are compared by identity and referenced
+     * weakly. A key whose source was collected only equals itself.
+     */
+    static class ScaledKey extends WeakReference<BufferedImage> {
+        private final int width, height;
+        private final int hash;
+
+        private ScaledKey(BufferedImage source, int width, int height, ReferenceQueue<BufferedImage> queue) {
+            super(source, queue);
+            this.width = width;
+            this.height = height;
+            this.hash = (System.identityHashCode(source)*31 + width)*31 + height;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other == this) {
+                return true;
+            }
+            if (!(other instanceof ScaledKey)) {
+                return false;
+            }
+            ScaledKey key = (ScaledKey)other;
+            BufferedImage source = get();
+            return source != null && source == key.get() && width == key.width && height == key.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -46,10 +46,32 @@ public class ScreenCoordinate {
 
     /**
      * Removes the percentage element from a screen coordinate and converts it into pixels offset.
+     * Layout code should use resolveX and resolveY, which do not create a new coordinate.
      */
     public ScreenCoordinate toAbsoluteCoordinate(int parentWidth, int parentHeight) {
-        int x = (int)Math.round(getPercentX()*parentWidth) + getPixelsX();
-        int y = (int)Math.round(getPercentY()*parentHeight) + getPixelsY();
-        return new ScreenCoordinate(x, 0, y, 0);
+        return new ScreenCoordinate(resolveX(parentWidth), 0, resolveY(parentHeight), 0);
+    }
+
+    /**
+     * Gets the horizontal offset in pixels within a parent of the given width.
+     */
+    public int resolveX(int parentWidth) {
+        return (int)Math.round(percentX*parentWidth) + pixelsX;
+    }
+
+    /**
+     * Gets the vertical offset in pixels within a parent of the given height.
+     */
+    public int resolveY(int parentHeight) {
+        return (int)Math.round(percentY*parentHeight) + pixelsY;
+    }
+
+    /**
+     * Stores the horizontal and vertical offsets in pixels within a parent of the given size
+     * into slots[offset] and slots[offset + 1].
+     */
+    public void resolve(int parentWidth, int parentHeight, int[] slots, int offset) {
+        slots[offset] = resolveX(parentWidth);
+        slots[offset + 1] = resolveY(parentHeight);
     }
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * Quadtree over the absolute layout bounds of document elements, used for hit-testing.
+ * Elements are given in paint order so the element drawn last wins, which is the same
+ * as searching the tree from the last child to the first.
+ * The index reads the bounds stored in the elements, so it must be rebuilt after any element moves.
+ */
+public class SpatialIndex {
+    /**
+     * Number of elements a node holds before it is split into quadrants.
+     */
+    private static final int NODE_CAPACITY = 8;
+
+    private static final int MAX_DEPTH = 16;
+
+    /**
+     * Elements in paint order. Nodes store indexes into this array.
+     */
+    private final DocumentElement[] elements;
+
+    private final Node root;
+
+    /**
+     * Builds the index from the elements of a document in the order they are painted.
+     */
+    public SpatialIndex(List<DocumentElement> paintOrder) {
+        elements = paintOrder.toArray(new DocumentElement[paintOrder.size()]);
+        Rectangle bounds = new Rectangle(0, 0, -1, -1);
+        for (DocumentElement element : elements) {
+            bounds.add(element.getLayoutBounds());
+        }
+        root = new Node(bounds.x, bounds.y, Math.max(bounds.width, 1), Math.max(bounds.height, 1), 0);
+        for (int i = 0; i < elements.length; i++) {
+            if (!elements[i].getLayoutBounds().isEmpty()) {
+                root.insert(i);
+            }
+        }
+    }
+
+    /**
+     * Finds the top-most element whose layout bounds contain the point.
+     * @return The element or null if no element contains the point.
+     */
+    public DocumentElement select(int x, int y) {
+        int best = -1;
+        Node node = root;
+        if (!node.contains(x, y)) {
+            return null;
+        }
+        while (node != null) {
+            for (int i = node.count - 1; i >= 0 && node.items[i] > best; i--) {
+                Rectangle bounds = elements[node.items[i]].getLayoutBounds();
+                if (x >= bounds.x && x < bounds.x + bounds.width && y >= bounds.y && y < bounds.y + bounds.height) {
+                    best = node.items[i];
+                    break;
+                }
+            }
+            node = node.quadrantAt(x, y);
+        }
+        return best == -1 ? null : elements[best];
+    }
+
+    private class Node {
+        private final int x, y, width, height, depth;
+
+        /**
+         * Indexes of the elements stored in this node, ascending.
+         */
+        private int[] items = new int[NODE_CAPACITY];
+
+        private int count = 0;
+
+        /**
+         * Top left, top right, bottom left, and bottom right nodes, or null before this node is split.
+         */
+        private Node[] quadrants = null;
+
+        private Node(int x, int y, int width, int height, int depth) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.depth = depth;
+        }
+
+        private boolean contains(int pointX, int pointY) {
+            return pointX >= x && pointX < x + width && pointY >= y && pointY < y + height;
+        }
+
+        private Node quadrantAt(int pointX, int pointY) {
+            if (quadrants == null) {
+                return null;
+            }
+            int index = (pointX < x + width/2 ? 0 : 1) + (pointY < y + height/2 ? 0 : 2);
+            return quadrants[index];
+        }
+
+        /**
+         * Finds the quadrant fully containing the bounds of the element, or null if it spans several.
+         */
+        private Node quadrantFor(Rectangle bounds) {
+            int middleX = x + width/2;
+            int middleY = y + height/2;
+            int column, row;
+            if (bounds.x + bounds.width <= middleX) {
+                column = 0;
+            } else if (bounds.x >= middleX) {
+                column = 1;
+            } else {
+                return null;
+            }
+            if (bounds.y + bounds.height <= middleY) {
+                row = 0;
+            } else if (bounds.y >= middleY) {
+                row = 2;
+            } else {
+                return null;
+            }
+            return quadrants[column + row];
+        }
+
+        private void insert(int index) {
+            if (quadrants != null) {
+                Node quadrant = quadrantFor(elements[index].getLayoutBounds());
+                if (quadrant != null) {
+                    quadrant.insert(index);
+                    return;
+                }
+            }
+            if (count == items.length) {
+                int[] grown = new int[items.length*2];
+                System.arraycopy(items, 0, grown, 0, count);
+                items = grown;
+            }
+            items[count++] = index;
+            if (quadrants == null && count > NODE_CAPACITY && depth < MAX_DEPTH && width > 1 && height > 1) {
+                split();
+            }
+        }
+
+        private void split() {
+            int leftWidth = width/2, topHeight = height/2;
+            quadrants = new Node[] {
+                new Node(x, y, leftWidth, topHeight, depth + 1),
+                new Node(x + leftWidth, y, width - leftWidth, topHeight, depth + 1),
+                new Node(x, y + topHeight, leftWidth, height - topHeight, depth + 1),
+                new Node(x + leftWidth, y + topHeight, width - leftWidth, height - topHeight, depth + 1)
+            };
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                Node quadrant = quadrantFor(elements[items[i]].getLayoutBounds());
+                if (quadrant != null) {
+                    quadrant.insert(items[i]);
+                } else {
+                    items[kept++] = items[i];
+                }
+            }
+            count = kept;
+        }
+    }
+}
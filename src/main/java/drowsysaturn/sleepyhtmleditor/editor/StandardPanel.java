@@ -4,9 +4,8 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.IOException;
-
-import javax.imageio.ImageIO;
+import java.lang.ref.SoftReference;
+import java.util.Collection;
 
 /**
  * This is an empty box element. 
@@ -41,29 +40,36 @@ public class StandardPanel extends DocumentElement {
     private BackgroundStyle style;
     
     /**
-     * Panel pre-rendered.
+     * Last width and height of panel since prerender. The prerendered buffer itself is kept by
+     * PanelBufferCache, which may evict it.
      */
-    private BufferedImage buffer;
+    private int lastWidth, lastHeight;
 
     /**
-     * Last width and height of panel since prerender.
+     * Determines if the File object or Image is saved in memory.
      */
-    private int lastWidth, lastHeight;
+    private boolean imageIsFile;
 
     /**
-     * Image has changed since last prerender.
+     * Image saved in memory or null.
      */
-    private boolean imageChanged;
+    private BufferedImage loadedImage;
 
     /**
-     * Determines if the File object or Image is saved in memory.
+     * Decode of imageFile which has not finished yet, or null.
      */
-    private boolean imageIsFile;
+    private ImageCache.ImageRequest pendingLoad;
 
     /**
-     * Image saved in memory or null.
+     * Image decoded from imageFile for this panel, or null. Kept until the file changes, so the
+     * panel can prerender again when ImageCache did not keep the image, unless memory runs short.
      */
-    private BufferedImage loadedImage;
+    private SoftReference<BufferedImage> decodedImage;
+
+    /**
+     * The image file could not be decoded. Cleared when a new image is set.
+     */
+    private boolean imageLoadFailed;
 
     public StandardPanel(ScreenCoordinate position, ScreenCoordinate size) {
         super(position, size);
@@ -72,9 +78,11 @@ public class StandardPanel extends DocumentElement {
         lastHeight = 0;
         color = Color.GRAY;
         style = BackgroundStyle.ORIGINAL;
-        imageChanged = false;
         imageIsFile = true;
         loadedImage = null;
+        pendingLoad = null;
+        decodedImage = null;
+        imageLoadFailed = false;
     }
 
     /**
@@ -86,7 +94,7 @@ public class StandardPanel extends DocumentElement {
             throw new IllegalArgumentException("Background style may not be null");
         }
         this.style = style;
-        this.imageChanged = true;
+        backgroundChanged();
     }
 
     /**
@@ -105,7 +113,7 @@ public class StandardPanel extends DocumentElement {
             throw new IllegalArgumentException("StandardPanel must have a non-null color.");
         }
         this.color = color;
-        this.imageChanged = true;
+        backgroundChanged();
     }
 
     /**
@@ -119,9 +127,11 @@ public class StandardPanel extends DocumentElement {
      * Sets the image to use for background.
      */
     public void setImage(File imageFile) {
+        cancelImageLoad();
         this.imageFile = imageFile;
-        imageChanged = true;
+        imageLoadFailed = false;
         imageIsFile = true;
+        backgroundChanged();
     }
 
     /**
@@ -137,11 +147,14 @@ public class StandardPanel extends DocumentElement {
     }
 
     /**
-     * Sets the image to use for background.
+     * Sets the image to use for background. The image is drawn as it is, so it must not be
+     * modified while the panel uses it.
      */
     public void setImage(BufferedImage image) {
+        cancelImageLoad();
         this.loadedImage = image;
         imageIsFile = false;
+        backgroundChanged();
     }
 
     @Override
@@ -153,69 +166,178 @@ public class StandardPanel extends DocumentElement {
         return StandardPanel.class.getName();
     }
 
+    @Override
+    protected void detached() {
+        cancelImageLoad();
+        PanelBufferCache.getShared().remove(this);
+    }
+
+    @Override
+    protected void collectImageFiles(Collection<File> files) {
+        if (imageIsFile && hasImage()) {
+            files.add(imageFile);
+        }
+    }
+
+    /**
+     * Drops the prerendered buffer, which no longer matches the settings, and repaints the panel.
+     */
+    private void backgroundChanged() {
+        PanelBufferCache.getShared().remove(this);
+        invalidate();
+    }
+
+    /**
+     * The background color is painted under the whole image, so the panel is opaque whenever the color is.
+     */
+    @Override
+    protected boolean isOpaque() {
+        return color.getAlpha() == 255;
+    }
+
     @Override
     public void render(Graphics graphics, int x, int y, int width, int height) {
         renderBackground(graphics, x, y, width, height);
         renderChildren(graphics, x, y, width, height);
     }
 
+    /**
+     * Records the background as a plain fill when there is no image to draw, and otherwise as the
+     * prerendered buffer, which is looked up in PanelBufferCache whenever the panel is drawn.
+     */
+    @Override
+    protected boolean compile(DisplayList list, int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return true;
+        }
+        if (!hasImage()) {
+            list.addFill(x, y, width, height, color);
+        } else {
+            list.addElementImage(this, x, y, width, height);
+        }
+        return true;
+    }
+
+    /**
+     * Records the background like compile, but prerenders the image into a buffer of the snapshot
+     * alone, drawing the image decoded for the snapshot. Without that image only the color is filled.
+     */
+    @Override
+    protected void snapshot(RenderSnapshot snapshot, int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        BufferedImage image = !hasImage() ? null : imageIsFile ? snapshot.getImage(imageFile) : loadedImage;
+        if (image == null) {
+            snapshot.addFill(x, y, width, height, color);
+        } else {
+            snapshot.addImage(renderBuffer(width, height, image), x, y, width, height);
+        }
+    }
+
+    @Override
+    protected BufferedImage prepareImage(int width, int height) {
+        return prepareBuffer(width, height);
+    }
+
+    /**
+     * Determines if an image is drawn over the background color, or may be once it is decoded.
+     */
+    private boolean hasImage() {
+        if (style == BackgroundStyle.SOLID_COLOR) {
+            return false;
+        }
+        return imageIsFile ? imageFile != null && !imageLoadFailed : loadedImage != null;
+    }
+
+    /**
+     * Fills the panel with its color, or draws the prerendered buffer if there is an image.
+     */
     protected void renderBackground(Graphics graphics, int x, int y, int width, int height) {
-        if (bufferExpired(width, height)) {
-            prerender(width, height);
+        if (width <= 0 || height <= 0) {
+            return;
         }
-        graphics.drawImage(buffer, x, y, width, height, null);
-        if (selectionBoxOn) {
-            graphics.setColor(Color.RED);
-            graphics.drawRect(x, y, width - 1, height - 1);
+        if (!hasImage()) {
+            graphics.setColor(color);
+            graphics.fillRect(x, y, width, height);
+            return;
+        }
+        graphics.drawImage(prepareBuffer(width, height), x, y, width, height, null);
+    }
+
+    /**
+     * Gets the prerendered buffer for the size, prerendering it if it was evicted or has another size.
+     */
+    private BufferedImage prepareBuffer(int width, int height) {
+        BufferedImage buffer = PanelBufferCache.getShared().get(this);
+        if (buffer == null || !isUsableSize(width, height)) {
+            buffer = prerender(width, height);
         }
+        return buffer;
     }
 
-    private boolean bufferExpired(int width, int height) {
-        if (lastWidth != width || lastHeight != height || imageChanged) {
+    private boolean isUsableSize(int width, int height) {
+        if (lastWidth == width && lastHeight == height) {
             return true;
         }
-        return false;
+        // Draft frames draw a buffer of a nearby size scaled instead of prerendering every size.
+        return isPaintingDraft() && isNearbySize(lastWidth, width) && isNearbySize(lastHeight, height);
     }
 
-    private void prerender(int width, int height) {
-        imageChanged = false;
+    /**
+     * Determines if two sizes differ by at most a quarter of the larger one.
+     */
+    private static boolean isNearbySize(int a, int b) {
+        return Math.abs(a - b) <= Math.max(a, b)/4;
+    }
+
+    private BufferedImage prerender(int width, int height) {
         lastWidth = width;
         lastHeight = height;
-        BufferedImage buf = generateBuffer(width, height);
-        Graphics graphics = buf.getGraphics();
-        renderBackgroundColor(graphics, width, height);
-        renderBackgroundPattern(graphics, width, height);
-        this.buffer = buf;
+        BufferedImage image = style == BackgroundStyle.SOLID_COLOR ? null : imageIsFile ? loadImageOrNull() : loadedImage;
+        BufferedImage buf = renderBuffer(width, height, image);
+        PanelBufferCache.getShared().put(this, buf);
+        return buf;
     }
 
-    private void renderBackgroundColor(Graphics graphics, int width, int height) {
-        graphics.setColor(color);
-        graphics.fillRect(0, 0, width, height);
+    /**
+     * Makes a new buffer filled with the background color with the image, if any, drawn over it.
+     * Only reads the panel, so snapshots can render buffers while the document is painted.
+     */
+    private BufferedImage renderBuffer(int width, int height, BufferedImage image) {
+        BufferedImage buf = generateBuffer(width, height);
+        Graphics graphics = buf.getGraphics();
+        RasterKernels.fill(buf, color.getRGB());
+        renderBackgroundPattern(graphics, buf, image, width, height);
+        graphics.dispose();
+        return buf;
     }
 
-    private void renderBackgroundPattern(Graphics graphics, int width, int height) {
+    /**
+     * Draws the image over the background color in the buffer, which is filled with nothing else.
+     */
+    private void renderBackgroundPattern(Graphics graphics, BufferedImage buf, BufferedImage image, int width, int height) {
         if (style == BackgroundStyle.SOLID_COLOR) {
             return;
         }
-        BufferedImage image = imageIsFile ? loadImageOrNull() : loadedImage;
         if (image != null) {
             int imageWidth = image.getWidth(), imageHeight = image.getHeight();
             if (style == BackgroundStyle.STRETCH) {
-                graphics.drawImage(image, 0, 0, width, height, null);
+                drawImage(graphics, buf, ScaledImageCache.getShared().getScaled(image, width, height), 0, 0, width, height);
             }
             else if (style == BackgroundStyle.COVER) {
-                renderCoverPattern(graphics, image, width, height, imageWidth, imageHeight);
+                renderCoverPattern(graphics, buf, image, width, height, imageWidth, imageHeight);
             }
             else if (style == BackgroundStyle.REPEAT) {
-                renderRepeatPattern(graphics, image, width, height, imageWidth, imageHeight);
+                renderRepeatPattern(graphics, buf, image, imageWidth, imageHeight);
             }
             else if (style == BackgroundStyle.ORIGINAL) {
-                graphics.drawImage(image, 0, 0, null);
+                drawImage(graphics, buf, image, 0, 0, imageWidth, imageHeight);
             }
         }
     }
 
-    private void renderCoverPattern(Graphics graphics, BufferedImage image, int width, int height, int imageWidth, int imageHeight) {
+    private void renderCoverPattern(Graphics graphics, BufferedImage buf, BufferedImage image, int width, int height, int imageWidth, int imageHeight) {
         float ratio = (float)imageWidth/(float)imageHeight;
         int coverWidth = (int)Math.round(ratio*height);
         int coverHeight = height;
@@ -226,34 +348,93 @@ public class StandardPanel extends DocumentElement {
         }
         int middleX = -coverWidth/2 + width/2;
         int middleY = -coverHeight/2 + width/2;
-        graphics.drawImage(image, middleX, middleY, coverWidth, coverHeight, null);
+        BufferedImage scaled = ScaledImageCache.getShared().getScaled(image, coverWidth, coverHeight);
+        drawImage(graphics, buf, scaled, middleX, middleY, coverWidth, coverHeight);
     }
 
-    private void renderRepeatPattern(Graphics graphics, BufferedImage image, int width, int height, int imageWidth, int imageHeight) {
-        for (int x = 0; x < width; x += imageWidth) {
-            for (int y = 0; y < height; y += imageHeight) {
-                graphics.drawImage(image, x, y, null);
-            }
+    /**
+     * The background under the tiles is a single color, so every tile blends into the same pixels.
+     * Only the first tile is drawn, and it is copied over the rest of the buffer.
+     */
+    private void renderRepeatPattern(Graphics graphics, BufferedImage buf, BufferedImage image, int imageWidth, int imageHeight) {
+        drawImage(graphics, buf, image, 0, 0, imageWidth, imageHeight);
+        RasterKernels.repeat(buf, imageWidth, imageHeight);
+    }
+
+    /**
+     * Draws the image into the buffer. Images which need no scaling are blended straight into the
+     * pixels of the buffer when their format allows it.
+     */
+    private static void drawImage(Graphics graphics, BufferedImage buf, BufferedImage image, int x, int y, int width, int height) {
+        if (image.getWidth() == width && image.getHeight() == height && RasterKernels.isSupported(image)) {
+            RasterKernels.drawOver(buf, image, x, y);
+        } else {
+            graphics.drawImage(image, x, y, width, height, null);
         }
     }
 
     /**
-     * Loads the image from file or returns null.
+     * Gets the image from file if it has been decoded or returns null. If the image is not decoded
+     * yet, it is decoded in the background and the panel is redrawn when it is ready. 
      */
     private BufferedImage loadImageOrNull() {
-        if (imageFile == null) {
+        if (imageFile == null || imageLoadFailed) {
             return null;
         }
-        BufferedImage image = null;
-        try {
-            image = ImageIO.read(imageFile);
+        BufferedImage image = getDecodedImage();
+        if (image == null) {
+            image = ImageCache.getShared().getIfCached(imageFile);
+        }
+        if (image == null && pendingLoad == null) {
+            ImageCache.ImageRequest request = ImageCache.getShared().loadAsync(imageFile, this::onImageLoaded);
+            if (decodedImage == null && !imageLoadFailed) {
+                // The callback has not already run.
+                pendingLoad = request;
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Called with the decoded image file, or null if it could not be decoded.
+     */
+    private void onImageLoaded(BufferedImage image) {
+        edit(() -> {
+            pendingLoad = null;
+            if (image == null) {
+                imageLoadFailed = true;
+            } else {
+                decodedImage = new SoftReference<BufferedImage>(image);
+            }
+            backgroundChanged();
+        });
+    }
+
+    /**
+     * Gets the image decoded for this panel, or null if there is none or it was collected.
+     */
+    private BufferedImage getDecodedImage() {
+        BufferedImage image = decodedImage == null ? null : decodedImage.get();
+        if (image == null) {
+            decodedImage = null;
         }
-        catch (IOException ex) { }
         return image;
     }
 
+    private void cancelImageLoad() {
+        if (pendingLoad != null) {
+            pendingLoad.cancel();
+            pendingLoad = null;
+        }
+        decodedImage = null;
+    }
+
+    /**
+     * Makes a buffer without an alpha channel if the background color covers it with opaque pixels.
+     */
     private BufferedImage generateBuffer(int width, int height) {
-        BufferedImage buf = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int type = isOpaque() ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage buf = new BufferedImage(width, height, type);
         return buf;
     }
 }
\ No newline at end of file
@@ -3,7 +3,8 @@ package drowsysaturn.sleepyhtmleditor.editor;
 import java.awt.Color;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
-import java.util.ArrayList;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 
 import java.awt.Font;
 
@@ -21,6 +22,10 @@ import java.awt.Font;
  * </code>
  */
 public class TextPanel extends StandardPanel {
+    /**
+     * Used to measure text outside of rendering.
+     */
+    private static final Graphics METRICS_GRAPHICS = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).getGraphics();
 
     /**
      * Text for this panel.
@@ -40,6 +45,11 @@ public class TextPanel extends StandardPanel {
 
     private Font font;
 
+    /**
+     * Lines of text from the last render.
+     */
+    private final TextWrapper wrapper = new TextWrapper();
+
     public TextPanel(ScreenCoordinate position, ScreenCoordinate size, String text) {
         super(position, size);
         setText(text);
@@ -60,6 +70,7 @@ public class TextPanel extends StandardPanel {
         }
         this.fontFamily = fontFamily;
         updateFont();
+        invalidate();
     }
 
     /**
@@ -78,6 +89,7 @@ public class TextPanel extends StandardPanel {
         }
         this.fontSize = fontSize;
         updateFont();
+        invalidate();
     }
 
     /**
@@ -92,6 +104,7 @@ public class TextPanel extends StandardPanel {
             throw new IllegalArgumentException("Text must not be null");
         }
         this.text = text;
+        invalidate();
     }
 
     public String getText() {
@@ -103,6 +116,7 @@ public class TextPanel extends StandardPanel {
             throw new IllegalArgumentException("Foreground color must not be null");
         }
         this.textColor = color;
+        invalidate();
     }
 
     public Color getForegroundColor() {
@@ -111,6 +125,7 @@ public class TextPanel extends StandardPanel {
 
     public void setTextAlign(TextAlign textAlign) {
         this.textAlign = textAlign;
+        invalidate();
     }
 
     public TextAlign getTextAlign() {
@@ -124,6 +139,52 @@ public class TextPanel extends StandardPanel {
         renderChildren(graphics, x, y, width, height);
     }
 
+    /**
+     * Records the background followed by a text operation for every line.
+     */
+    @Override
+    protected boolean compile(DisplayList list, int x, int y, int width, int height) {
+        super.compile(list, x, y, width, height);
+        FontMetrics fontMetrics = METRICS_GRAPHICS.getFontMetrics(font);
+        wrapper.wrap(text, font, fontMetrics, width);
+        int textHeight = fontMetrics.getHeight();
+        int textBaseHeight = fontMetrics.getAscent();
+        for (int i = 0; i < wrapper.getLineCount(); i++) {
+            list.addTextLine(wrapper, i, font, textColor, lineX(wrapper, i, x, width), y + i*textHeight + textBaseHeight);
+        }
+        return true;
+    }
+
+    /**
+     * Records the background followed by a copy of every line, wrapped by a wrapper of the
+     * snapshot alone since the one of the panel may be in use by a render.
+     */
+    @Override
+    protected void snapshot(RenderSnapshot snapshot, int x, int y, int width, int height) {
+        super.snapshot(snapshot, x, y, width, height);
+        FontMetrics fontMetrics = METRICS_GRAPHICS.getFontMetrics(font);
+        TextWrapper lines = new TextWrapper();
+        lines.wrap(text, font, fontMetrics, width);
+        int textHeight = fontMetrics.getHeight();
+        int textBaseHeight = fontMetrics.getAscent();
+        Rectangle area = new Rectangle(x, y, width, height);
+        growByText(area, lines, textHeight);
+        for (int i = 0; i < lines.getLineCount(); i++) {
+            char[] line = lines.copyLine(i);
+            if (line.length > 0) {
+                snapshot.addText(line, lineX(lines, i, x, width), y + i*textHeight + textBaseHeight, font, textColor, area);
+            }
+        }
+    }
+
+    /**
+     * Wrapped text is slow to paint, so text panels are cached as layers even without children.
+     */
+    @Override
+    protected boolean prefersLayer() {
+        return true;
+    }
+
     @Override
     /**
      * Gets the element type.
@@ -133,6 +194,44 @@ public class TextPanel extends StandardPanel {
         return TextPanel.class.getName();
     }
 
+    /**
+     * Grows the painted area by the lines of text which overflow the bottom of the panel, and by
+     * words too long to be wrapped which overflow its sides.
+     */
+    @Override
+    protected void computePaintedBounds(Rectangle bounds) {
+        FontMetrics fontMetrics = METRICS_GRAPHICS.getFontMetrics(font);
+        wrapper.wrap(text, font, fontMetrics, bounds.width);
+        growByText(bounds, wrapper, fontMetrics.getHeight());
+    }
+
+    /**
+     * Grows the bounds of the panel by the wrapped lines which overflow it.
+     */
+    private void growByText(Rectangle bounds, TextWrapper lines, int lineHeight) {
+        int lineCount = lines.getLineCount();
+        int textHeight = lineCount*lineHeight;
+        if (textHeight > bounds.height) {
+            bounds.height = textHeight;
+        }
+        int textWidth = 0;
+        for (int i = 0; i < lineCount; i++) {
+            textWidth = Math.max(textWidth, lines.getLineWidth(i));
+        }
+        if (textWidth > bounds.width) {
+            // Same placement as the widest line in renderText.
+            int left = bounds.x;
+            if (textAlign == TextAlign.CENTER) {
+                left = bounds.x + bounds.width/2 - textWidth/2;
+            } else if (textAlign == TextAlign.RIGHT) {
+                left = bounds.x + bounds.width - textWidth;
+            }
+            int right = Math.max(bounds.x + bounds.width, left + textWidth);
+            bounds.x = Math.min(bounds.x, left);
+            bounds.width = right - bounds.x;
+        }
+    }
+
     private void updateFont() {
         font = new Font(fontFamily, Font.PLAIN, fontSize);
     }
@@ -143,51 +242,29 @@ public class TextPanel extends StandardPanel {
     private void renderText(Graphics graphics, int x, int y, int width, int height) {
         graphics.setFont(font);
         graphics.setColor(textColor);
-        ArrayList<String> lines = splitLines(graphics, width);
         FontMetrics fontMetrics = graphics.getFontMetrics();
+        wrapper.wrap(text, font, fontMetrics, width);
         int textHeight = fontMetrics.getHeight();
         int textBaseHeight = fontMetrics.getAscent();
-        if (textAlign == TextAlign.LEFT) {
-            for (int i = 0; i < lines.size(); i++) {
-                graphics.drawString(lines.get(i), x, y + i*textHeight + textBaseHeight);
-            }
-        }
-        else if (textAlign == TextAlign.CENTER) {
-            int middleX = x + width/2;
-            for (int i = 0; i < lines.size(); i++) {
-                int halfLineWidth = fontMetrics.stringWidth(lines.get(i))/2;
-                graphics.drawString(lines.get(i), middleX - halfLineWidth, y + i*textHeight + textBaseHeight);
-            }
-        }
-        else if (textAlign == TextAlign.RIGHT) {
-            for (int i = 0; i < lines.size(); i++) {
-                int lineWidth = fontMetrics.stringWidth(lines.get(i));
-                graphics.drawString(lines.get(i), x + width - lineWidth, y + i*textHeight + textBaseHeight);
-            }
-        }
-        else {
-            throw new UnsupportedOperationException("Text align mode not supported");
+        int lineCount = wrapper.getLineCount();
+        for (int i = 0; i < lineCount; i++) {
+            wrapper.drawLine(graphics, i, lineX(wrapper, i, x, width), y + i*textHeight + textBaseHeight);
         }
     }
 
     /**
-     * Splits the text into lines based on the current font and the width of the panel.
-     * @return List of lines.
+     * Gets where a wrapped line starts within the given horizontal bounds, depending on the alignment.
      */
-    private ArrayList<String> splitLines(Graphics graphics, int width) {
-        String[] words = text.split("\\s");
-        ArrayList<String> lines = new ArrayList<String>();
-        FontMetrics fontMetrics = graphics.getFontMetrics();
-        String currentLine = "";
-        int wordIndex = 0;
-        while (wordIndex < words.length) {
-            while (wordIndex < words.length && fontMetrics.stringWidth(currentLine + words[wordIndex]) < width) {
-                currentLine += words[wordIndex] + " ";
-                wordIndex++;
-            }
-            lines.add(currentLine);
-            currentLine = "";
+    private int lineX(TextWrapper lines, int line, int x, int width) {
+        if (textAlign == TextAlign.LEFT) {
+            return x;
+        }
+        else if (textAlign == TextAlign.CENTER) {
+            return x + width/2 - lines.getLineWidth(line)/2;
+        }
+        else if (textAlign == TextAlign.RIGHT) {
+            return x + width - lines.getLineWidth(line);
         }
-        return lines;
+        throw new UnsupportedOperationException("Text align mode not supported");
     }
 }
\ No newline at end of file
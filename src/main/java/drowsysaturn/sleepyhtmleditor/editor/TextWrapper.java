@@ -0,0 +1,282 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Breaks text into lines which fit a width and remembers the result. Lines are broken between words,
+ * and every newline starts a new paragraph. Whitespace between words is drawn as a single space,
+ * like in HTML, so lines are as wide as they were measured. Each word is measured once per font, so a new width
+ * only sums the stored widths. When the text changes, only paragraphs whose text changed are measured again.
+ *
+ * Example usage:
+ * <code>
+ * TextWrapper wrapper = new TextWrapper();
+ * wrapper.wrap(text, font, graphics.getFontMetrics(font), width);
+ * for (int i = 0; i < wrapper.getLineCount(); i++) {
+ *     wrapper.drawLine(graphics, i, x, y + i*lineHeight);
+ * }
+ * </code>
+ */
+public class TextWrapper {
+    private String text = null;
+
+    private Font font = null;
+
+    private int width = 0;
+
+    private ArrayList<Paragraph> paragraphs = new ArrayList<Paragraph>();
+
+    /**
+     * Paragraph and first word of every line, in order.
+     */
+    private Paragraph[] lineParagraphs = new Paragraph[16];
+
+    private int[] lineIndexes = new int[16];
+
+    private int lineCount = 0;
+
+    /**
+     * Breaks the text into lines no wider than the width, unless a single word is wider.
+     * Does nothing if the text, font, and width are the same as the last call.
+     */
+    public void wrap(String text, Font font, FontMetrics fontMetrics, int width) {
+        boolean textChanged = !text.equals(this.text);
+        if (!textChanged && font.equals(this.font) && width == this.width) {
+            return;
+        }
+        if (textChanged) {
+            splitParagraphs(text);
+        }
+        this.text = text;
+        this.font = font;
+        this.width = width;
+        lineCount = 0;
+        for (Paragraph paragraph : paragraphs) {
+            paragraph.breakLines(font, fontMetrics, width);
+            for (int i = 0; i < paragraph.lineCount; i++) {
+                addLine(paragraph, i);
+            }
+        }
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Gets the width of a line in pixels, without trailing whitespace.
+     */
+    public int getLineWidth(int line) {
+        return lineParagraphs[line].lineWidths[lineIndexes[line]];
+    }
+
+    /**
+     * Draws a line with its baseline starting at x and y.
+     */
+    public void drawLine(Graphics graphics, int line, int x, int y) {
+        Paragraph paragraph = lineParagraphs[line];
+        int index = lineIndexes[line];
+        int firstWord = paragraph.lineFirstWords[index], endWord = paragraph.lineFirstWords[index + 1];
+        if (firstWord == endWord) {
+            // Empty paragraph
+            return;
+        }
+        int start = paragraph.wordStarts[firstWord];
+        int end = paragraph.wordEnds[endWord - 1];
+        graphics.drawChars(paragraph.chars, start, end - start, x, y);
+    }
+
+    /**
+     * Draws a line into a render backend with its baseline starting at x and y.
+     */
+    public void drawLine(RenderBackend backend, int line, int x, int y, Font font, Color color) {
+        Paragraph paragraph = lineParagraphs[line];
+        int index = lineIndexes[line];
+        int firstWord = paragraph.lineFirstWords[index], endWord = paragraph.lineFirstWords[index + 1];
+        if (firstWord == endWord) {
+            return;
+        }
+        int start = paragraph.wordStarts[firstWord];
+        int end = paragraph.wordEnds[endWord - 1];
+        backend.drawText(paragraph.chars, start, end - start, x, y, font, color);
+    }
+
+    /**
+     * Copies the characters of a line, which are drawn by drawLine.
+     */
+    public char[] copyLine(int line) {
+        Paragraph paragraph = lineParagraphs[line];
+        int index = lineIndexes[line];
+        int firstWord = paragraph.lineFirstWords[index], endWord = paragraph.lineFirstWords[index + 1];
+        if (firstWord == endWord) {
+            return new char[0];
+        }
+        return Arrays.copyOfRange(paragraph.chars, paragraph.wordStarts[firstWord], paragraph.wordEnds[endWord - 1]);
+    }
+
+    private void addLine(Paragraph paragraph, int index) {
+        if (lineCount == lineIndexes.length) {
+            Paragraph[] grownParagraphs = new Paragraph[lineCount*2];
+            int[] grownIndexes = new int[lineCount*2];
+            System.arraycopy(lineParagraphs, 0, grownParagraphs, 0, lineCount);
+            System.arraycopy(lineIndexes, 0, grownIndexes, 0, lineCount);
+            lineParagraphs = grownParagraphs;
+            lineIndexes = grownIndexes;
+        }
+        lineParagraphs[lineCount] = paragraph;
+        lineIndexes[lineCount] = index;
+        lineCount++;
+    }
+
+    /**
+     * Splits the text at newlines, reusing the measurements of paragraphs which did not change.
+     */
+    private void splitParagraphs(String text) {
+        HashMap<String, Paragraph> previous = new HashMap<String, Paragraph>();
+        for (Paragraph paragraph : paragraphs) {
+            previous.put(paragraph.text, paragraph);
+        }
+        paragraphs = new ArrayList<Paragraph>();
+        int start = 0;
+        while (start <= text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end == -1) {
+                end = text.length();
+            }
+            String paragraphText = text.substring(start, end);
+            Paragraph paragraph = previous.remove(paragraphText);
+            paragraphs.add(paragraph != null ? paragraph : new Paragraph(paragraphText));
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Text between two newlines, with the position and width of each of its words.
+     */
+    private static class Paragraph {
+        private final String text;
+
+        /**
+         * The words of the text separated by single spaces.
+         */
+        private char[] chars;
+
+        private int[] wordStarts, wordEnds, wordWidths;
+
+        private int wordCount;
+
+        private int spaceWidth;
+
+        /**
+         * Font the words were measured with, or null if they have not been measured.
+         */
+        private Font measuredFont = null;
+
+        /**
+         * Index of the first word of every line followed by the number of words.
+         */
+        private int[] lineFirstWords = new int[2];
+
+        private int[] lineWidths = new int[1];
+
+        private int lineCount = 0;
+
+        private int wrappedWidth = -1;
+
+        private Paragraph(String text) {
+            this.text = text;
+            findWords();
+        }
+
+        /**
+         * Copies the words of the text into chars, collapsing the whitespace between them.
+         */
+        private void findWords() {
+            char[] source = text.toCharArray();
+            chars = new char[source.length];
+            wordStarts = new int[8];
+            wordEnds = new int[8];
+            wordCount = 0;
+            int i = 0, length = 0;
+            while (i < source.length) {
+                while (i < source.length && Character.isWhitespace(source[i])) {
+                    i++;
+                }
+                if (i == source.length) {
+                    break;
+                }
+                if (wordCount > 0) {
+                    chars[length++] = ' ';
+                }
+                int start = length;
+                while (i < source.length && !Character.isWhitespace(source[i])) {
+                    chars[length++] = source[i++];
+                }
+                if (wordCount == wordStarts.length) {
+                    int[] grownStarts = new int[wordCount*2], grownEnds = new int[wordCount*2];
+                    System.arraycopy(wordStarts, 0, grownStarts, 0, wordCount);
+                    System.arraycopy(wordEnds, 0, grownEnds, 0, wordCount);
+                    wordStarts = grownStarts;
+                    wordEnds = grownEnds;
+                }
+                wordStarts[wordCount] = start;
+                wordEnds[wordCount] = length;
+                wordCount++;
+            }
+            chars = Arrays.copyOf(chars, length);
+            wordWidths = new int[wordCount];
+        }
+
+        private void measure(Font font, FontMetrics fontMetrics) {
+            for (int i = 0; i < wordCount; i++) {
+                wordWidths[i] = fontMetrics.charsWidth(chars, wordStarts[i], wordEnds[i] - wordStarts[i]);
+            }
+            spaceWidth = fontMetrics.charWidth(' ');
+            measuredFont = font;
+            wrappedWidth = -1;
+        }
+
+        /**
+         * Fills the lines of this paragraph. A word is added to a line while the line stays narrower
+         * than the width. Words wider than the width get a line of their own.
+         * An empty paragraph is a single empty line.
+         */
+        private void breakLines(Font font, FontMetrics fontMetrics, int width) {
+            if (!font.equals(measuredFont)) {
+                measure(font, fontMetrics);
+            }
+            if (width == wrappedWidth) {
+                return;
+            }
+            wrappedWidth = width;
+            lineCount = 0;
+            int word = 0;
+            do {
+                int first = word;
+                int lineWidth = 0;
+                while (word < wordCount && (word == first || lineWidth + spaceWidth + wordWidths[word] < width)) {
+                    lineWidth += (word == first ? 0 : spaceWidth) + wordWidths[word];
+                    word++;
+                }
+                if (lineCount + 2 > lineFirstWords.length) {
+                    int[] grownFirstWords = new int[lineFirstWords.length*2];
+                    int[] grownWidths = new int[lineFirstWords.length*2];
+                    System.arraycopy(lineFirstWords, 0, grownFirstWords, 0, lineCount + 1);
+                    System.arraycopy(lineWidths, 0, grownWidths, 0, lineCount);
+                    lineFirstWords = grownFirstWords;
+                    lineWidths = grownWidths;
+                }
+                lineFirstWords[lineCount] = first;
+                lineWidths[lineCount] = lineWidth;
+                lineCount++;
+                lineFirstWords[lineCount] = word;
+            } while (word < wordCount);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Least recently used cache of rendered tiles of a document, bounded by the size of their pixels.
+ * The document scaled by a zoom factor is divided into squares of TILE_SIZE pixels, and every
+ * tile is rendered once and kept for its zoom, so scrolling only renders the tiles which come
+ * into view and zooming back to an earlier zoom reuses its tiles.
+ *
+ * Tiles stay valid until the area of the document they show is damaged. Damage is given in
+ * document coordinates and drops the covered tiles of every zoom.
+ *
+ * Example usage:
+ * <code>
+ * lense.setTileCache(new TileCache(TileCache.DEFAULT_MAX_BYTES));
+ * lense.setViewport(new Viewport(2, 0, 0));
+ * </code>
+ */
+public class TileCache extends LruCache<TileCache.TileKey, TileCache.Tile> {
+    /**
+     * Width and height of a tile in pixels.
+     */
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * Default limit of bytes held by a cache.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L*1024*1024;
+
+    private long invalidations = 0;
+
+    public TileCache(long maxBytes) {
+        super(maxBytes);
+    }
+
+    /**
+     * Gets the area of the document shown by a tile, rounded out to whole pixels.
+     */
+    public static Rectangle documentBounds(double zoom, int column, int row) {
+        int left = (int)Math.floor((double)column*TILE_SIZE/zoom);
+        int top = (int)Math.floor((double)row*TILE_SIZE/zoom);
+        int right = (int)Math.ceil((double)(column + 1)*TILE_SIZE/zoom);
+        int bottom = (int)Math.ceil((double)(row + 1)*TILE_SIZE/zoom);
+        return new Rectangle(left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Gets the pixels of a tile, marking it as the most recently used.
+     * @return The pixels or null if the tile was never rendered, was damaged, or was evicted.
+     */
+    BufferedImage get(double zoom, int column, int row) {
+        Tile tile = get(new TileKey(zoom, column, row));
+        return tile == null ? null : tile.image;
+    }
+
+    /**
+     * Caches the pixels of a tile, evicting least recently used tiles if needed.
+     */
+    void put(double zoom, int column, int row, BufferedImage image) {
+        put(new TileKey(zoom, column, row), new Tile(image, documentBounds(zoom, column, row)));
+    }
+
+    /**
+     * Drops the tiles of every zoom which show part of the area of the document.
+     */
+    synchronized void invalidate(Rectangle area) {
+        if (!area.isEmpty()) {
+            invalidations += removeIf(tile -> tile.bounds.intersects(area));
+        }
+    }
+
+    /**
+     * Gets the number of tiles dropped because the document changed where they are.
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    @Override
+    protected long bytesOf(Tile tile) {
+        return sizeOf(tile.image);
+    }
+
+    /**
+     * Pixels of a tile and the area of the document they show.
+     */
+    static class Tile {
+        private final BufferedImage image;
+
+        private final Rectangle bounds;
+
+        private Tile(BufferedImage image, Rectangle bounds) {
+            this.image = image;
+            this.bounds = bounds;
+        }
+    }
+
+    /**
+     * Identifies a tile by its zoom and its column and row in the document scaled by the zoom.
+     */
+    static class TileKey {
+        private final double zoom;
+        private final int column, row;
+
+        private TileKey(double zoom, int column, int row) {
+            this.zoom = zoom;
+            this.column = column;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof TileKey)) {
+                return false;
+            }
+            TileKey key = (TileKey)other;
+            return zoom == key.zoom && column == key.column && row == key.row;
+        }
+
+        @Override
+        public int hashCode() {
+            return (Double.hashCode(zoom)*31 + column)*31 + row;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import java.awt.Rectangle;
+
+/**
+ * Part of a document shown on screen, as a zoom factor and a scroll position. The view is the
+ * document scaled by the zoom, and the scroll position is the pixel of that scaled document at the
+ * top left corner of the screen. Scroll positions are whole pixels, so tiles of the scaled
+ * document line up with screen pixels. Viewports are immutable.
+ *
+ * Example usage:
+ * <code>
+ * Viewport viewport = Viewport.IDENTITY.zoomedAt(2, cursorX, cursorY).scrolledBy(0, 100);
+ * lense.setViewport(viewport);
+ * double documentX = viewport.toDocumentX(cursorX);
+ * </code>
+ */
+public class Viewport {
+    public static final double MIN_ZOOM = 0.1;
+
+    public static final double MAX_ZOOM = 8;
+
+    /**
+     * The document at its own size, starting at the top left corner of the screen.
+     */
+    public static final Viewport IDENTITY = new Viewport(1, 0, 0);
+
+    private final double zoom;
+
+    private final int scrollX, scrollY;
+
+    /**
+     * @throws IllegalArgumentException If the zoom is outside of MIN_ZOOM and MAX_ZOOM.
+     */
+    public Viewport(double zoom, int scrollX, int scrollY) {
+        if (!(zoom >= MIN_ZOOM && zoom <= MAX_ZOOM)) {
+            throw new IllegalArgumentException("Zoom must be between " + MIN_ZOOM + " and " + MAX_ZOOM);
+        }
+        this.zoom = zoom;
+        this.scrollX = scrollX;
+        this.scrollY = scrollY;
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    /**
+     * Gets the horizontal pixel of the scaled document at the left edge of the screen.
+     */
+    public int getScrollX() {
+        return scrollX;
+    }
+
+    /**
+     * Gets the vertical pixel of the scaled document at the top edge of the screen.
+     */
+    public int getScrollY() {
+        return scrollY;
+    }
+
+    public boolean isIdentity() {
+        return zoom == 1 && scrollX == 0 && scrollY == 0;
+    }
+
+    /**
+     * Gets a viewport scrolled by the given number of screen pixels.
+     */
+    public Viewport scrolledBy(int dx, int dy) {
+        return new Viewport(zoom, scrollX + dx, scrollY + dy);
+    }
+
+    /**
+     * Gets a viewport with another zoom, which keeps the document point under the given screen
+     * point in place. The zoom is limited to MIN_ZOOM and MAX_ZOOM.
+     */
+    public Viewport zoomedAt(double zoom, double viewX, double viewY) {
+        double clamped = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom));
+        double documentX = toDocumentX(viewX), documentY = toDocumentY(viewY);
+        return new Viewport(clamped, (int)Math.round(documentX*clamped - viewX), (int)Math.round(documentY*clamped - viewY));
+    }
+
+    /**
+     * Converts a horizontal screen position to a document position.
+     */
+    public double toDocumentX(double viewX) {
+        return (viewX + scrollX)/zoom;
+    }
+
+    /**
+     * Converts a vertical screen position to a document position.
+     */
+    public double toDocumentY(double viewY) {
+        return (viewY + scrollY)/zoom;
+    }
+
+    /**
+     * Gets the screen pixels covering the area of the document.
+     */
+    public Rectangle toView(Rectangle document) {
+        int left = (int)Math.floor(document.x*zoom) - scrollX;
+        int top = (int)Math.floor(document.y*zoom) - scrollY;
+        int right = (int)Math.ceil((document.x + document.width)*zoom) - scrollX;
+        int bottom = (int)Math.ceil((document.y + document.height)*zoom) - scrollY;
+        return new Rectangle(left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Gets the area of the document covering the screen pixels.
+     */
+    public Rectangle toDocument(Rectangle view) {
+        int left = (int)Math.floor(toDocumentX(view.x));
+        int top = (int)Math.floor(toDocumentY(view.y));
+        int right = (int)Math.ceil(toDocumentX(view.x + view.width));
+        int bottom = (int)Math.ceil(toDocumentY(view.y + view.height));
+        return new Rectangle(left, top, right - left, bottom - top);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Viewport)) {
+            return false;
+        }
+        Viewport viewport = (Viewport)other;
+        return zoom == viewport.zoom && scrollX == viewport.scrollX && scrollY == viewport.scrollY;
+    }
+
+    @Override
+    public int hashCode() {
+        return (Double.hashCode(zoom)*31 + scrollX)*31 + scrollY;
+    }
+}
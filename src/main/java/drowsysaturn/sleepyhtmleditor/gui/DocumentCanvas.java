@@ -1,60 +1,449 @@
 package drowsysaturn.sleepyhtmleditor.gui;
 
-import java.awt.image.BufferedImage;
+import java.awt.Rectangle;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
 
 import drowsysaturn.sleepyhtmleditor.editor.*;
-import javafx.embed.swing.SwingFXUtils;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.image.*;
 import javafx.scene.paint.Color;
+import javafx.util.Duration;
 
 /**
- * JavaFX canvas used to render DocumentLense.
+ * JavaFX canvas used to render DocumentLense. With the AWT backend, the document is rendered by a
+ * RenderThread, and the canvas only presents the latest finished frame on the FX thread.
+ * While the canvas is being resized, draft frames are rendered, and a full quality frame follows
+ * once the size stopped changing for a moment. With the JavaFX backend, the damaged part of the
+ * document is drawn straight into the canvas on the FX thread instead.
+ *
+ * The document is shown through a Viewport, which zooms and scrolls it. When the lense has a
+ * TileCache, the AWT backend puts frames together from cached tiles, so scrolling only renders
+ * the tiles which come into view.
+ *
+ * While an element is dragged, the canvas shows a drag preview instead: the element's layer drawn
+ * between the rest of the document painted before and after it, all from a DragSnapshot. No document frames are rendered until
+ * the drag is committed, and the preview stays up until a frame of the committed document arrives.
+ *
+ * Outlines like the selection box are not part of the document frames. They are drawn by an
+ * OverlayCanvas, which follows a tracked element through the bounds reported with every presented frame.
  */
 public class DocumentCanvas extends ResizableCanvas {
+    /**
+     * Time without a size change after which resizing is considered finished.
+     */
+    private static final Duration RESIZE_IDLE = Duration.millis(150);
+
+    private final RenderBackendType backendType;
+
+    /**
+     * Draws into this canvas with the JavaFX backend, or null with the AWT backend.
+     */
+    private final FxRenderBackend fxBackend;
+
+    /**
+     * Size of what was last drawn with the JavaFX backend.
+     */
+    private int drawnWidth = 0, drawnHeight = 0;
+
+    /**
+     * The canvas shows something other than the document, so the JavaFX backend redraws all of it.
+     */
+    private boolean redrawAll = true;
+
+    /**
+     * Area drawn by the JavaFX backend, reused between frames.
+     */
+    private final Rectangle damage = new Rectangle();
+
     private DocumentLense documentLense;
     private WritableImage writableImage;
 
+    private Viewport viewport = Viewport.IDENTITY;
+
+    /**
+     * Renders frames of documentLense, or null without a lense.
+     */
+    private RenderThread renderThread;
+
+    /**
+     * Switches back to full quality frames once resizing is idle.
+     */
+    private final PauseTransition resizeIdle = new PauseTransition(RESIZE_IDLE);
+
+    /**
+     * Edit generation of the last presented frame.
+     */
+    private long presentedGeneration = -1;
+
+    /**
+     * Snapshot shown while dragging, or null.
+     */
+    private DragSnapshot dragSnapshot;
+
+    private WritableImage dragBackground, dragLayer, dragForeground;
+
+    /**
+     * Where the dragged element is shown.
+     */
+    private final Rectangle dragTarget = new Rectangle();
+
+    /**
+     * Edit generation of the committed drag, or -1 while dragging.
+     */
+    private long dragCommitGeneration = -1;
+
+    /**
+     * Element whose bounds are reported to trackedBoundsListener, or null.
+     */
+    private DocumentElement trackedElement = null;
+
+    private Consumer<Rectangle> trackedBoundsListener = null;
+
     public DocumentCanvas() {
+        this(RenderBackendType.AWT);
+    }
+
+    public DocumentCanvas(RenderBackendType backendType) {
+        if (backendType == null) {
+            throw new IllegalArgumentException("Render backend must not be null");
+        }
+        this.backendType = backendType;
+        fxBackend = backendType == RenderBackendType.JAVAFX ? new FxRenderBackend(getGraphicsContext2D()) : null;
         documentLense = null;
         writableImage = null;
+        renderThread = null;
+        resizeIdle.setOnFinished(evt -> {
+            if (renderThread != null) {
+                renderThread.setQuality(RenderQuality.FULL);
+            }
+            requestDraw();
+        });
     }
 
     /**
      * Sets what lense to be used by this canvas.
      */
     public void setLense(DocumentLense lense) {
+        if (renderThread != null) {
+            renderThread.stop();
+        }
         this.documentLense = lense;
+        if (lense != null) {
+            lense.setViewport(viewport);
+        }
+        this.writableImage = null;
+        this.presentedGeneration = -1;
+        this.dragSnapshot = null;
+        this.renderThread = lense == null || fxBackend != null ? null : new RenderThread(lense, getFrameScheduler()::requestFrame);
+        this.redrawAll = true;
+        this.trackedElement = null;
+        requestDraw();
+    }
+
+    /**
+     * Shows the document through the viewport from the next frame on.
+     * @throws IllegalArgumentException If the viewport is null.
+     */
+    public void setViewport(Viewport viewport) {
+        if (viewport == null) {
+            throw new IllegalArgumentException("Viewport must not be null");
+        }
+        if (viewport.equals(this.viewport)) {
+            return;
+        }
+        this.viewport = viewport;
+        if (documentLense != null) {
+            documentLense.setViewport(viewport);
+        }
+        requestDraw();
+    }
+
+    public Viewport getViewport() {
+        return viewport;
+    }
+
+    /**
+     * Reports the bounds of the element from every presented frame, so something drawn over the
+     * document can follow the element when the layout changes.
+     * @param element The element or null to track nothing.
+     */
+    public void setTrackedElement(DocumentElement element) {
+        trackedElement = element;
+        if (renderThread != null) {
+            renderThread.setTrackedElement(element);
+        }
+    }
+
+    /**
+     * Sets what is called on the FX thread with the absolute bounds of the tracked element whenever
+     * a frame is presented, or with null if the element is no longer part of the document.
+     * Frames presented while a drag preview is shown are not reported.
+     */
+    public void setOnTrackedBoundsChanged(Consumer<Rectangle> listener) {
+        trackedBoundsListener = listener;
+    }
+
+    /**
+     * Renders draft frames until the size stopped changing for RESIZE_IDLE.
+     */
+    @Override
+    protected void resized() {
+        if (renderThread != null) {
+            renderThread.setQuality(RenderQuality.DRAFT);
+        }
+        resizeIdle.playFromStart();
+        requestDraw();
+    }
+
+    /**
+     * Renders a new frame of the document on the render thread, which draws it once it is finished.
+     * May be called from any thread.
+     */
+    @Override
+    public void requestDraw() {
+        RenderThread renderer = renderThread;
+        if (renderer == null) {
+            super.requestDraw();
+            return;
+        }
+        if (Platform.isFxApplicationThread()) {
+            renderer.setSize((int)getWidth(), (int)getHeight());
+        }
+        renderer.requestFrame();
+    }
+
+    /**
+     * Takes a DragSnapshot of the element at the size of the canvas and calls the callback with it on
+     * the FX thread. With the AWT backend, the snapshot is taken on the render thread, so the FX thread
+     * is not held up. The JavaFX backend paints on the FX thread, so the snapshot is taken there after
+     * the current event. The callback gets null if the element is no longer part of the document.
+     */
+    public void requestDragSnapshot(DocumentElement element, Consumer<DragSnapshot> callback) {
+        if (documentLense == null) {
+            Platform.runLater(() -> callback.accept(null));
+            return;
+        }
+        DocumentLense lense = documentLense;
+        RenderThread renderer = renderThread;
+        if (renderer != null) {
+            renderer.setSize((int)getWidth(), (int)getHeight());
+            renderer.requestDragSnapshot(element, snapshot -> Platform.runLater(() -> callback.accept(snapshot)));
+            return;
+        }
+        Platform.runLater(() -> {
+            int width = (int)getWidth(), height = (int)getHeight();
+            boolean attached = lense.getElementById(element.getId()) == element;
+            DragSnapshot snapshot = null;
+            if (attached && width > 0 && height > 0) {
+                // Nothing else paints this lense while the FX thread is busy, so no edit can cut it short.
+                snapshot = lense.snapshotForDrag(element, width, height);
+            }
+            callback.accept(snapshot);
+        });
+    }
+
+    /**
+     * Shows the snapshot instead of the document until the drag ends.
+     * The dragged element is shown where it was until updateDragPreview is called.
+     */
+    public void startDragPreview(DragSnapshot snapshot) {
+        dragSnapshot = snapshot;
+        dragBackground = toImage(snapshot.getBackground());
+        dragLayer = toImage(snapshot.getLayer());
+        dragForeground = toImage(snapshot.getForeground());
+        dragTarget.setBounds(snapshot.getElementBounds());
+        dragCommitGeneration = -1;
+        getFrameScheduler().requestFrame();
+    }
+
+    /**
+     * Shows the dragged element with the given layout bounds. Only redraws the canvas,
+     * without rendering the document.
+     */
+    public void updateDragPreview(Rectangle target) {
+        if (dragSnapshot != null) {
+            dragTarget.setBounds(target);
+            getFrameScheduler().requestFrame();
+        }
+    }
+
+    /**
+     * Ends the drag once a frame rendered at the given edit generation, which includes the
+     * committed change, is presented.
+     */
+    public void endDragPreview(long generation) {
+        if (dragSnapshot != null) {
+            dragCommitGeneration = generation;
+            requestDraw();
+        }
+    }
+
+    /**
+     * Ends the drag right away, showing the document as it is.
+     */
+    public void cancelDragPreview() {
+        clearDragPreview();
+        requestDraw();
+    }
+
+    public boolean isDragPreviewShown() {
+        return dragSnapshot != null;
+    }
+
+    public RenderBackendType getBackendType() {
+        return backendType;
+    }
+
+    private void clearDragPreview() {
+        dragSnapshot = null;
+        dragBackground = null;
+        dragLayer = null;
+        dragForeground = null;
     }
 
     @Override
     /**
-     * Draws the most recent lense. Doesn't render anything without a lense set.
+     * Draws the latest frame of the lense. Doesn't render anything without a lense set.
      */
     public void draw() {
+        if (fxBackend != null) {
+            drawDirect();
+            return;
+        }
         GraphicsContext ctx = getGraphicsContext2D();
         ctx.setFill(Color.WHITE);
         ctx.fillRect(0, 0, getWidth(), getHeight());
-        Image image = renderDocument();
-        if (image != null) {
+        RenderThread.Frame frame = renderThread == null ? null : renderThread.takeFrame();
+        Image image = presentDocument(frame);
+        if (dragSnapshot != null && dragCommitGeneration >= 0 && (presentedGeneration >= dragCommitGeneration
+                || (renderThread != null && renderThread.getUnchangedGeneration() >= dragCommitGeneration))) {
+            clearDragPreview();
+        }
+        if (dragSnapshot != null) {
+            drawDragPreview(ctx);
+        } else if (image != null) {
             ctx.drawImage(image, 0.0, 0.0);
         }
+        if (frame != null && dragSnapshot == null && trackedElement != null
+                && frame.getTrackedElement() == trackedElement && trackedBoundsListener != null) {
+            Rectangle bounds = frame.getTrackedBounds();
+            trackedBoundsListener.accept(bounds == null ? null : new Rectangle(bounds));
+        }
     }
 
     /**
-     * Renders the document and converts it to the proper data format. 
-     * @return The image or null if the DocumentLense is not ready.
+     * Lays out the document and draws the damaged part of it into the canvas with the JavaFX
+     * backend. The whole canvas is drawn after a resize or a drag preview. A committed drag is
+     * drawn right away, so its preview ends with the next frame.
      */
-    private WritableImage renderDocument() {
-       if (documentLense != null) {
-            double width = getWidth();
-            double height = getHeight();
-            BufferedImage renderedDocument = documentLense.render((int)width, (int)height);
-            if (renderedDocument != null) {
-                writableImage = SwingFXUtils.toFXImage(renderedDocument, null);
+    private void drawDirect() {
+        GraphicsContext ctx = getGraphicsContext2D();
+        int width = (int)getWidth(), height = (int)getHeight();
+        if (dragSnapshot != null && dragCommitGeneration >= 0) {
+            clearDragPreview();
+        }
+        if (dragSnapshot != null || documentLense == null || width <= 0 || height <= 0) {
+            ctx.setFill(Color.WHITE);
+            ctx.fillRect(0, 0, getWidth(), getHeight());
+            if (dragSnapshot != null) {
+                drawDragPreview(ctx);
+            }
+            redrawAll = true;
+            return;
+        }
+        Lock lock = documentLense.getReadLock();
+        lock.lock();
+        try {
+            long generation = documentLense.getEditGeneration();
+            documentLense.collectDamage(width, height, damage);
+            if (redrawAll || width != drawnWidth || height != drawnHeight) {
+                damage.setBounds(0, 0, width, height);
+            }
+            redrawAll = false;
+            drawnWidth = width;
+            drawnHeight = height;
+            if (!damage.isEmpty()) {
+                ctx.save();
+                ctx.setFill(Color.WHITE);
+                ctx.fillRect(damage.x, damage.y, damage.width, damage.height);
+                fxBackend.reset();
+                Viewport view = documentLense.getPaintViewport();
+                Rectangle region = damage;
+                if (!view.isIdentity()) {
+                    ctx.translate(-view.getScrollX(), -view.getScrollY());
+                    ctx.scale(view.getZoom(), view.getZoom());
+                    region = view.toDocument(damage);
+                }
+                boolean finished = documentLense.renderRegion(fxBackend, region, generation);
+                ctx.restore();
+                if (!finished) {
+                    redrawAll = true;
+                    requestDraw();
+                }
+            }
+            presentedGeneration = generation;
+            if (trackedElement != null && trackedBoundsListener != null) {
+                DocumentElement attached = documentLense.getElementById(trackedElement.getId());
+                trackedBoundsListener.accept(attached == trackedElement ? new Rectangle(trackedElement.getLayoutBounds()) : null);
             }
-            return writableImage;
-       } 
-       return null;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Draws the layer between the background and foreground, scaled if the element is being resized.
+     * The layer is placed through the viewport the snapshot was taken with.
+     */
+    private void drawDragPreview(GraphicsContext ctx) {
+        ctx.drawImage(dragBackground, 0.0, 0.0);
+        Rectangle layer = dragSnapshot.getLayerBounds(), element = dragSnapshot.getElementBounds();
+        Viewport view = dragSnapshot.getViewport();
+        double zoom = view.getZoom();
+        double scaleX = element.width > 0 ? (double)dragTarget.width/element.width : 1;
+        double scaleY = element.height > 0 ? (double)dragTarget.height/element.height : 1;
+        double x = dragTarget.x + (layer.x - element.x)*scaleX, y = dragTarget.y + (layer.y - element.y)*scaleY;
+        ctx.drawImage(dragLayer, x*zoom - view.getScrollX(), y*zoom - view.getScrollY(),
+            layer.width*scaleX*zoom, layer.height*scaleY*zoom);
+        ctx.drawImage(dragForeground, 0.0, 0.0);
+    }
+
+    private static WritableImage toImage(FrameBuffer buffer) {
+        WritableImage image = new WritableImage(buffer.getWidth(), buffer.getHeight());
+        image.getPixelWriter().setPixels(0, 0, buffer.getWidth(), buffer.getHeight(),
+            PixelFormat.getIntArgbPreInstance(), buffer.getPixels(), 0, buffer.getWidth());
+        return image;
+    }
+
+    /**
+     * Copies the changed part of the taken frame into the displayed image.
+     * The displayed image is only recreated when the frame changes size.
+     * @param frame The latest finished frame, or null if none finished since the last one.
+     * @return The image or null if no frame finished yet.
+     */
+    private WritableImage presentDocument(RenderThread.Frame frame) {
+        if (renderThread == null) {
+            return null;
+        }
+        if (frame != null) {
+            presentedGeneration = frame.getGeneration();
+            FrameBuffer buffer = frame.getBuffer();
+            Rectangle area = frame.getUploadArea();
+            if (writableImage == null || (int)writableImage.getWidth() != buffer.getWidth()
+                    || (int)writableImage.getHeight() != buffer.getHeight()) {
+                writableImage = new WritableImage(buffer.getWidth(), buffer.getHeight());
+                area = new Rectangle(0, 0, buffer.getWidth(), buffer.getHeight());
+            }
+            if (!area.isEmpty()) {
+                writableImage.getPixelWriter().setPixels(area.x, area.y, area.width, area.height,
+                    PixelFormat.getIntArgbPreInstance(), buffer.getPixels(),
+                    area.y*buffer.getWidth() + area.x, buffer.getWidth());
+            }
+        }
+        return writableImage;
     }
-}
\ No newline at end of file
+}
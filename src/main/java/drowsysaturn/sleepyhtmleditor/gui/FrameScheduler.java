@@ -0,0 +1,88 @@
+package drowsysaturn.sleepyhtmleditor.gui;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javafx.animation.AnimationTimer;
+
+/**
+ * Coalesces redraw requests into at most one frame per JavaFX pulse. Requests only mark the frame
+ * as dirty, and the renderer runs on the FX thread during the next pulse no matter how many
+ * requests arrived. The pulse timer only runs while frames are requested.
+ *
+ * Example usage:
+ * <code>
+ * FrameScheduler scheduler = new FrameScheduler(canvas::draw);
+ * scheduler.requestFrame();
+ * scheduler.requestFrame(); // Still renders once
+ * </code>
+ */
+public class FrameScheduler {
+    private final Runnable renderer;
+
+    private final AnimationTimer timer;
+
+    /**
+     * A frame was requested since the last frame was rendered.
+     */
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+
+    /**
+     * The timer is started or about to be started.
+     */
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private final AtomicLong requestedFrames = new AtomicLong(), renderedFrames = new AtomicLong();
+
+    public FrameScheduler(Runnable renderer) {
+        if (renderer == null) {
+            throw new IllegalArgumentException("Renderer must not be null");
+        }
+        this.renderer = renderer;
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                onPulse();
+            }
+        };
+    }
+
+    /**
+     * Renders a frame during the next pulse. May be called from any thread.
+     */
+    public void requestFrame() {
+        requestedFrames.incrementAndGet();
+        dirty.set(true);
+        if (running.compareAndSet(false, true)) {
+            FxHelper.executeFxThread(timer::start);
+        }
+    }
+
+    private void onPulse() {
+        if (dirty.getAndSet(false)) {
+            renderedFrames.incrementAndGet();
+            renderer.run();
+            return;
+        }
+        // Nothing to draw, so stop receiving pulses until the next request.
+        timer.stop();
+        running.set(false);
+        if (dirty.get() && running.compareAndSet(false, true)) {
+            timer.start();
+        }
+    }
+
+    /**
+     * Gets the number of times a frame was requested.
+     */
+    public long getRequestedFrames() {
+        return requestedFrames.get();
+    }
+
+    /**
+     * Gets the number of frames actually rendered. Lower than the requested frames when requests were coalesced.
+     */
+    public long getRenderedFrames() {
+        return renderedFrames.get();
+    }
+}
@@ -0,0 +1,130 @@
+package drowsysaturn.sleepyhtmleditor.gui;
+
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+import drowsysaturn.sleepyhtmleditor.editor.RenderBackend;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.scene.text.FontPosture;
+import javafx.scene.text.FontWeight;
+
+/**
+ * Render backend which draws into the GraphicsContext of a JavaFX canvas. Operations are recorded
+ * by the canvas and rasterized by the JavaFX graphics pipeline, on the GPU when one is available.
+ * Must only be used on the FX thread.
+ *
+ * Images are converted to JavaFX images the first time they are drawn, so they must not change
+ * afterwards. Converted images are kept as long as the original is, so buffers dropped by the
+ * caches of the editor are dropped here too, and images the editor keeps cached, like panel
+ * buffers and offscreen images of elements, are only converted once. Text is drawn with the JavaFX font closest to the AWT font, while lines are still
+ * broken with AWT metrics, so text may look slightly different from the AWT backend.
+ *
+ * Example usage:
+ * <code>
+ * FxRenderBackend backend = new FxRenderBackend(canvas.getGraphicsContext2D());
+ * lense.renderRegion(backend, region, lense.getEditGeneration());
+ * </code>
+ */
+public class FxRenderBackend implements RenderBackend {
+    private final GraphicsContext ctx;
+
+    private final WeakHashMap<BufferedImage, Image> images = new WeakHashMap<BufferedImage, Image>();
+
+    private final HashMap<java.awt.Color, Color> colors = new HashMap<java.awt.Color, Color>();
+
+    private final HashMap<Font, javafx.scene.text.Font> fonts = new HashMap<Font, javafx.scene.text.Font>();
+
+    private java.awt.Color currentColor = null;
+
+    private Font currentFont = null;
+
+    public FxRenderBackend(GraphicsContext ctx) {
+        if (ctx == null) {
+            throw new IllegalArgumentException("Graphics context must not be null");
+        }
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void fillRect(int x, int y, int width, int height, java.awt.Color color) {
+        setColor(color);
+        ctx.fillRect(x, y, width, height);
+    }
+
+    @Override
+    public void drawImage(BufferedImage image, int x, int y, int width, int height) {
+        Image converted = images.get(image);
+        if (converted == null) {
+            converted = toImage(image);
+            images.put(image, converted);
+        }
+        ctx.drawImage(converted, x, y, width, height);
+    }
+
+    @Override
+    public void drawText(char[] chars, int start, int length, int x, int y, Font font, java.awt.Color color) {
+        setColor(color);
+        if (font != currentFont) {
+            javafx.scene.text.Font converted = fonts.get(font);
+            if (converted == null) {
+                converted = javafx.scene.text.Font.font(font.getFamily(), font.isBold() ? FontWeight.BOLD : FontWeight.NORMAL,
+                    font.isItalic() ? FontPosture.ITALIC : FontPosture.REGULAR, font.getSize2D());
+                fonts.put(font, converted);
+            }
+            ctx.setFont(converted);
+            currentFont = font;
+        }
+        ctx.fillText(new String(chars, start, length), x, y);
+    }
+
+    @Override
+    public void clip(int x, int y, int width, int height) {
+        ctx.beginPath();
+        ctx.rect(x, y, width, height);
+        ctx.clip();
+    }
+
+    /**
+     * Gets null, since a canvas cannot be drawn with a Graphics.
+     */
+    @Override
+    public Graphics getGraphics() {
+        return null;
+    }
+
+    /**
+     * Forgets the current fill and font, for when the context was changed or restored by someone else.
+     */
+    public void reset() {
+        currentColor = null;
+        currentFont = null;
+    }
+
+    private void setColor(java.awt.Color color) {
+        if (color == currentColor) {
+            return;
+        }
+        Color converted = colors.get(color);
+        if (converted == null) {
+            converted = Color.rgb(color.getRed(), color.getGreen(), color.getBlue(), color.getAlpha()/255.0);
+            colors.put(color, converted);
+        }
+        ctx.setFill(converted);
+        currentColor = color;
+    }
+
+    private static Image toImage(BufferedImage image) {
+        int width = image.getWidth(), height = image.getHeight();
+        WritableImage converted = new WritableImage(width, height);
+        converted.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(),
+            image.getRGB(0, 0, width, height, null, 0, width), 0, width);
+        return converted;
+    }
+}
@@ -1,5 +1,6 @@
 package drowsysaturn.sleepyhtmleditor.gui;
 
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.*;
@@ -7,38 +8,99 @@ import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.ColorPicker;
+import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.Cursor;
+import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.Pane;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.io.File;
 import java.io.IOException;
 
+import drowsysaturn.sleepyhtmleditor.editor.BackgroundStyle;
 import drowsysaturn.sleepyhtmleditor.editor.BackgroundStyleHelper;
 import drowsysaturn.sleepyhtmleditor.editor.CoordinateCoder;
 import drowsysaturn.sleepyhtmleditor.editor.CoordinateCodingException;
 import drowsysaturn.sleepyhtmleditor.editor.DocumentElement;
 import drowsysaturn.sleepyhtmleditor.editor.DocumentLense;
+import drowsysaturn.sleepyhtmleditor.editor.DragSnapshot;
+import drowsysaturn.sleepyhtmleditor.editor.ImageCache;
+import drowsysaturn.sleepyhtmleditor.editor.LayerCache;
 import drowsysaturn.sleepyhtmleditor.editor.ScreenCoordinate;
 import drowsysaturn.sleepyhtmleditor.editor.ScreenCoordinateSingle;
 import drowsysaturn.sleepyhtmleditor.editor.StandardPanel;
 import drowsysaturn.sleepyhtmleditor.editor.TextPanel;
+import drowsysaturn.sleepyhtmleditor.editor.TileCache;
+import drowsysaturn.sleepyhtmleditor.editor.Viewport;
+import drowsysaturn.sleepyhtmleditor.html.ExportReport;
 import drowsysaturn.sleepyhtmleditor.html.HtmlExporter;
 
 public class MainWindowController {
+    /**
+     * Distance in pixels the mouse must move while pressed before a drag starts.
+     */
+    private static final int DRAG_THRESHOLD = 3;
+
+    /**
+     * Factor the zoom changes by for every zoom step.
+     */
+    private static final double ZOOM_STEP = 1.25;
+
+    private enum DragMode {
+        MOVE,
+        RESIZE
+    }
+
     @FXML
     private Pane centerPane;
 
     private DocumentCanvas documentCanvas;
 
+    /**
+     * Draws the selection box above documentCanvas.
+     */
+    private OverlayCanvas overlayCanvas;
+
     private DocumentLense lense = null;
 
     private DocumentElement selectedElement = null;
 
+    /**
+     * What the pressed mouse does to dragElement, or null if the mouse was not pressed on an element.
+     */
+    private DragMode dragMode = null;
+
+    private DocumentElement dragElement = null;
+
+    /**
+     * Mouse position where the drag started, and the bounds of the element at that moment.
+     */
+    private int dragStartX, dragStartY;
+
+    private Rectangle dragStartBounds;
+
+    /**
+     * The mouse moved past DRAG_THRESHOLD. The drag preview is shown once its snapshot is taken.
+     */
+    private boolean dragging = false;
+
+    /**
+     * Mouse movement of the drag in screen pixels, as of the last drag event.
+     */
+    private int dragDx, dragDy;
+
+    /**
+     * Counts the drags started, so a snapshot taken for a drag which already ended is not shown.
+     */
+    private long dragCount = 0;
+
     @FXML
     private ColorPicker selectedBackgroundColorPicker;
 
@@ -90,6 +152,12 @@ public class MainWindowController {
     @FXML
     private TextField htmlDocumentTitleTextField;
 
+    /**
+     * Shows the report of the last export.
+     */
+    @FXML
+    private Label exportReportLabel;
+
     @FXML
     public void onCreateStandardButtonClick() {
         int randomOffsetX = (int)Math.floor(Math.random()*200);
@@ -97,7 +165,7 @@ public class MainWindowController {
         ScreenCoordinate position = new ScreenCoordinate(randomOffsetX, 0.25, randomOffsetY, 0.25);
         ScreenCoordinate size = new ScreenCoordinate(0, 0.5, 0, 0.5);
         StandardPanel panel = new StandardPanel(position, size);
-        lense.getRoot().addChild(panel);
+        lense.edit(() -> lense.getRoot().addChild(panel));
         redrawDisplay();
     }
 
@@ -108,36 +176,93 @@ public class MainWindowController {
         ScreenCoordinate position = new ScreenCoordinate(randomOffsetX, 0.25, randomOffsetY, 0.25);
         ScreenCoordinate size = new ScreenCoordinate(0, 0.5, 0, 0.5);
         TextPanel panel = new TextPanel(position, size, "Test text");
-        lense.getRoot().addChild(panel);
+        lense.edit(() -> lense.getRoot().addChild(panel));
         redrawDisplay();
     }
 
     @FXML
     public void onDeleteSelectedClick() {
         if (selectedElement != null && lense != null && lense.getRoot() != selectedElement) {
-            lense.removeElement(selectedElement);
+            DocumentElement removed = selectedElement;
+            lense.edit(() -> lense.removeElement(removed));
+            selectedElement = null;
+            documentCanvas.setTrackedElement(null);
+            overlayCanvas.setSelection(null, false);
+            updateSelectionPanel();
             redrawDisplay();
         }
     }
 
     private void redrawDisplay() {
-        FxHelper.executeFxThread(()-> {
-            documentCanvas.draw();
-        });
+        documentCanvas.requestDraw();
+    }
+
+    @FXML
+    private void onZoomInClick() {
+        zoomAtCenter(documentCanvas.getViewport().getZoom()*ZOOM_STEP);
+    }
+
+    @FXML
+    private void onZoomOutClick() {
+        zoomAtCenter(documentCanvas.getViewport().getZoom()/ZOOM_STEP);
+    }
+
+    @FXML
+    private void onActualSizeClick() {
+        setViewport(Viewport.IDENTITY);
+    }
+
+    private void zoomAtCenter(double zoom) {
+        setViewport(documentCanvas.getViewport().zoomedAt(zoom, documentCanvas.getWidth()/2, documentCanvas.getHeight()/2));
     }
 
+    /**
+     * Scrolls the document with the mouse wheel, or zooms at the mouse while the shortcut key is down.
+     */
+    private void onDocumentScrolled(ScrollEvent event) {
+        if (dragElement != null) {
+            return;
+        }
+        Viewport viewport = documentCanvas.getViewport();
+        if (event.isShortcutDown()) {
+            if (event.getDeltaY() != 0) {
+                double zoom = event.getDeltaY() > 0 ? viewport.getZoom()*ZOOM_STEP : viewport.getZoom()/ZOOM_STEP;
+                setViewport(viewport.zoomedAt(zoom, event.getX(), event.getY()));
+            }
+        } else {
+            setViewport(viewport.scrolledBy((int)Math.round(-event.getDeltaX()), (int)Math.round(-event.getDeltaY())));
+        }
+        event.consume();
+    }
+
+    /**
+     * Shows the document and the selection through the viewport.
+     */
+    private void setViewport(Viewport viewport) {
+        documentCanvas.setViewport(viewport);
+        overlayCanvas.setViewport(viewport);
+    }
+
+    /**
+     * Selects the element, which must have been laid out just now, like by DocumentLense.select.
+     * Only the overlay is redrawn, the document is not rendered.
+     */
     private void selectElement(DocumentElement selection) {
         if (selection != null) {
-            if (selectedElement != null) {
-                selectedElement.showSelectionBox(false);
-            }
             selectedElement = selection;
-            selectedElement.showSelectionBox(true);
-            redrawDisplay();
+            showSelection(selection.getLayoutBounds());
+            documentCanvas.setTrackedElement(selection);
             updateSelectionPanel();
         }
     }
 
+    /**
+     * Outlines the selected element at the given absolute bounds, or removes the outline if null.
+     */
+    private void showSelection(Rectangle bounds) {
+        overlayCanvas.setSelection(bounds, selectedElement != lense.getRoot());
+    }
+
     private void updateSelectionPanel() {
         updateSelectionPanelBackground();
         updateSelectionPanelText();
@@ -152,7 +277,8 @@ public class MainWindowController {
             fileChooser.setTitle("Open image");
             File imageFile = fileChooser.showOpenDialog(stage);
             if (imageFile != null) {
-                ((StandardPanel)selectedElement).setImage(imageFile);
+                StandardPanel selectedStandardPanel = (StandardPanel)selectedElement;
+                lense.edit(() -> selectedStandardPanel.setImage(imageFile));
             }
             redrawDisplay();
         }
@@ -168,8 +294,11 @@ public class MainWindowController {
             try {
                 String title = htmlDocumentTitleTextField.getText();
                 HtmlExporter htmlExporter = new HtmlExporter(lense, title);
-                htmlExporter.write(file);
+                ExportReport report = htmlExporter.write(file);
+                exportReportLabel.setText(String.format("Saved %,d bytes. %d elements share %d styles, which saved %,d bytes.",
+                    report.getBytesWritten(), report.getElementCount(), report.getSharedStyleCount(), report.getBytesSaved()));
             } catch (IOException ex) {
+                exportReportLabel.setText("");
                 Alert alert = new Alert(AlertType.ERROR);
                 alert.setTitle("Error");
                 alert.setHeaderText("File error");
@@ -185,8 +314,7 @@ public class MainWindowController {
             if (selectedElement != null && selectedElement instanceof StandardPanel) {
                 StandardPanel selectedStandardPanel = (StandardPanel)selectedElement;
                 Color colorWithoutOpacity = FxHelper.fromFxColorToAwt(selectedBackgroundColorPicker.getValue());
-                selectedStandardPanel.setBackgroundStyle(
-                    BackgroundStyleHelper.parseString((String)selectedBackgroundStyleChoiceBox.getValue()));
+                BackgroundStyle style = BackgroundStyleHelper.parseString((String)selectedBackgroundStyleChoiceBox.getValue());
                 String opacityString = selectedBackgroundOpacityText.getText();
                 double opacity = 1;
                 try {
@@ -198,12 +326,15 @@ public class MainWindowController {
                     alert.setContentText("Invalid number entered for background opacity");
                     alert.showAndWait();
                 }
-                selectedStandardPanel.setBackgroundColor(
-                    new Color(
-                        colorWithoutOpacity.getRed(),
-                        colorWithoutOpacity.getGreen(),
-                        colorWithoutOpacity.getBlue(),
-                        (int)(opacity*255)));
+                Color color = new Color(
+                    colorWithoutOpacity.getRed(),
+                    colorWithoutOpacity.getGreen(),
+                    colorWithoutOpacity.getBlue(),
+                    (int)(opacity*255));
+                lense.edit(() -> {
+                    selectedStandardPanel.setBackgroundStyle(style);
+                    selectedStandardPanel.setBackgroundColor(color);
+                });
                 redrawDisplay();
             }
         });
@@ -220,8 +351,11 @@ public class MainWindowController {
                     ScreenCoordinateSingle sizeY = CoordinateCoder.decode(selectedSizeTextBoxY.getText());
                     ScreenCoordinate size = new ScreenCoordinate(sizeX, sizeY);
                     ScreenCoordinate pos = new ScreenCoordinate(posX, posY);
-                    selectedElement.setPosition(pos);
-                    selectedElement.setSize(size);
+                    DocumentElement element = selectedElement;
+                    lense.edit(() -> {
+                        element.setPosition(pos);
+                        element.setSize(size);
+                    });
                 } catch (CoordinateCodingException ex) {
                     Alert alert = new Alert(AlertType.ERROR);
                     alert.setTitle("Invalid input");
@@ -239,12 +373,17 @@ public class MainWindowController {
         FxHelper.executeFxThread(() -> {
             if (selectedElement != null && selectedElement instanceof StandardPanel) {
                 TextPanel selectedTextPanel = (TextPanel)selectedElement;
-                selectedTextPanel.setForegroundColor(
-                    FxHelper.fromFxColorToAwt(selectedTextColorPicker.getValue()));
-                selectedTextPanel.setText(selectedTextContentTextBox.getText());
-                selectedTextPanel.setFontFamily(selectedTextFontTextBox.getText());
+                Color color = FxHelper.fromFxColorToAwt(selectedTextColorPicker.getValue());
+                String text = selectedTextContentTextBox.getText();
+                String fontFamily = selectedTextFontTextBox.getText();
+                lense.edit(() -> {
+                    selectedTextPanel.setForegroundColor(color);
+                    selectedTextPanel.setText(text);
+                    selectedTextPanel.setFontFamily(fontFamily);
+                });
                 try {
-                    selectedTextPanel.setFontSize(Integer.parseInt(selectedTextSizeTextBox.getText()));
+                    int fontSize = Integer.parseInt(selectedTextSizeTextBox.getText());
+                    lense.edit(() -> selectedTextPanel.setFontSize(fontSize));
                 } catch (Exception ex) {
                     Alert alert = new Alert(AlertType.ERROR);
                     alert.setTitle("Invalid input");
@@ -307,13 +446,13 @@ public class MainWindowController {
 
     private void updateSelectionPanelSize() {
         FxHelper.executeFxThread(() -> {
-            if (selectedElement != lense.getRoot()) {
+            if (selectedElement != null && selectedElement != lense.getRoot()) {
                 ScreenCoordinate position = selectedElement.getPosition();
                 ScreenCoordinate size = selectedElement.getSize();
-                String posXString = position.getPercentX()*100 + "% + " + position.getPixelsX() + "px";
-                String posYString = position.getPercentY()*100 + "% + " + position.getPixelsY() + "px";
-                String sizeXString = size.getPercentX()*100 + "% + " + size.getPixelsX() + "px";
-                String sizeYString = size.getPercentY()*100 + "% + " + size.getPixelsY() + "px";
+                String posXString = CoordinateCoder.encode(position.getPercentX(), position.getPixelsX());
+                String posYString = CoordinateCoder.encode(position.getPercentY(), position.getPixelsY());
+                String sizeXString = CoordinateCoder.encode(size.getPercentX(), size.getPixelsX());
+                String sizeYString = CoordinateCoder.encode(size.getPercentY(), size.getPixelsY());
                 selectedSizeTextBoxX.setText(sizeXString);
                 selectedSizeTextBoxY.setText(sizeYString);
                 selectedPositionTextBoxX.setText(posXString);
@@ -333,8 +472,12 @@ public class MainWindowController {
         });
     }
 
+    /**
+     * Selects the element under the mouse, and gets ready to move it, or to resize the selected
+     * element if the mouse is on its resize handle.
+     */
     private void onDocumentClicked(MouseEvent event) {
-        if (lense == null) {
+        if (lense == null || event.getButton() != MouseButton.PRIMARY) {
             return;
         }
         int x = (int)Math.floor(event.getX());
@@ -342,19 +485,147 @@ public class MainWindowController {
         int width = (int)Math.floor(documentCanvas.getWidth());
         int height = (int)Math.floor(documentCanvas.getHeight());
         DocumentElement selection = lense.select(width, height, x, y);
+        if (selectedElement != null && selectedElement != lense.getRoot() 
+                && lense.getElementById(selectedElement.getId()) == selectedElement) {
+            // select just laid out the document, so the bounds are up to date.
+            showSelection(selectedElement.getLayoutBounds());
+            if (overlayCanvas.isOnResizeHandle(x, y)) {
+                beginDrag(DragMode.RESIZE, selectedElement, x, y);
+                return;
+            }
+        }
         if (selection != null) {
             selectElement(selection);
+            if (selection != lense.getRoot()) {
+                beginDrag(DragMode.MOVE, selection, x, y);
+            }
         }
     }
 
+    private void beginDrag(DragMode mode, DocumentElement element, int x, int y) {
+        dragMode = mode;
+        dragElement = element;
+        dragStartX = x;
+        dragStartY = y;
+        dragStartBounds = new Rectangle(element.getLayoutBounds());
+        dragging = false;
+        dragCount++;
+    }
+
+    /**
+     * Shows the dragged element at the mouse. Only the canvases are redrawn, the document is not rendered.
+     * Until the snapshot for the drag preview is taken, only the selection box follows the mouse.
+     */
+    private void onDocumentDragged(MouseEvent event) {
+        if (dragElement == null) {
+            return;
+        }
+        dragDx = (int)Math.floor(event.getX()) - dragStartX;
+        dragDy = (int)Math.floor(event.getY()) - dragStartY;
+        if (!dragging) {
+            if (Math.abs(dragDx) < DRAG_THRESHOLD && Math.abs(dragDy) < DRAG_THRESHOLD) {
+                return;
+            }
+            long drag = dragCount;
+            documentCanvas.requestDragSnapshot(dragElement, snapshot -> onDragSnapshotTaken(drag, snapshot));
+            dragging = true;
+        }
+        Rectangle target = dragTarget(dragDx, dragDy);
+        documentCanvas.updateDragPreview(target);
+        showSelection(target);
+    }
+
+    /**
+     * Shows the drag preview from the snapshot if the drag it was taken for is still going on.
+     */
+    private void onDragSnapshotTaken(long drag, DragSnapshot snapshot) {
+        if (snapshot == null || drag != dragCount || !dragging) {
+            return;
+        }
+        dragStartBounds = new Rectangle(snapshot.getElementBounds());
+        documentCanvas.startDragPreview(snapshot);
+        Rectangle target = dragTarget(dragDx, dragDy);
+        documentCanvas.updateDragPreview(target);
+        showSelection(target);
+    }
+
+    /**
+     * Commits the dragged position or size to the element.
+     */
+    private void onDocumentReleased(MouseEvent event) {
+        if (dragElement == null) {
+            return;
+        }
+        DocumentElement element = dragElement;
+        DragMode mode = dragMode;
+        boolean dragged = dragging;
+        dragElement = null;
+        dragMode = null;
+        dragging = false;
+        if (!dragged) {
+            return;
+        }
+        Rectangle target = dragTarget((int)Math.floor(event.getX()) - dragStartX, (int)Math.floor(event.getY()) - dragStartY);
+        int dx = target.x - dragStartBounds.x, dy = target.y - dragStartBounds.y;
+        int dw = target.width - dragStartBounds.width, dh = target.height - dragStartBounds.height;
+        if (dx == 0 && dy == 0 && dw == 0 && dh == 0) {
+            documentCanvas.cancelDragPreview();
+            showSelection(dragStartBounds);
+            return;
+        }
+        // Only the pixel part of the coordinates changes, so percentages keep scaling with the parent.
+        lense.edit(() -> {
+            if (mode == DragMode.MOVE) {
+                element.setPosition(offsetPixels(element.getPosition(), dx, dy));
+            } else {
+                element.setSize(offsetPixels(element.getSize(), dw, dh));
+            }
+        });
+        showSelection(target);
+        documentCanvas.endDragPreview(lense.getEditGeneration());
+        updateSelectionPanelSize();
+    }
+
+    /**
+     * Shows the resize cursor over the resize handle of the selected element.
+     */
+    private void onDocumentMouseMoved(MouseEvent event) {
+        boolean onHandle = overlayCanvas.isOnResizeHandle((int)Math.floor(event.getX()), (int)Math.floor(event.getY()));
+        documentCanvas.setCursor(onHandle ? Cursor.SE_RESIZE : Cursor.DEFAULT);
+    }
+
+    /**
+     * Gets the bounds of the dragged element after the mouse moved by the given amount of screen pixels.
+     */
+    private Rectangle dragTarget(int viewDx, int viewDy) {
+        double zoom = documentCanvas.getViewport().getZoom();
+        int dx = (int)Math.round(viewDx/zoom), dy = (int)Math.round(viewDy/zoom);
+        Rectangle start = dragStartBounds;
+        if (dragMode == DragMode.RESIZE) {
+            return new Rectangle(start.x, start.y, Math.max(1, start.width + dx), Math.max(1, start.height + dy));
+        }
+        return new Rectangle(start.x + dx, start.y + dy, start.width, start.height);
+    }
+
+    private static ScreenCoordinate offsetPixels(ScreenCoordinate coordinate, int dx, int dy) {
+        return new ScreenCoordinate(coordinate.getPixelsX() + dx, coordinate.getPercentX(), 
+            coordinate.getPixelsY() + dy, coordinate.getPercentY());
+    }
+
     @FXML
     private void initialize() {
         addDocumentCanvas();
         centerPane.requestLayout();
-        documentCanvas.setOnMouseClicked(mouseEvent -> {
+        documentCanvas.setOnMousePressed(mouseEvent -> {
             onDocumentClicked(mouseEvent);
         });
+        documentCanvas.setOnMouseDragged(this::onDocumentDragged);
+        documentCanvas.setOnMouseReleased(this::onDocumentReleased);
+        documentCanvas.setOnMouseMoved(this::onDocumentMouseMoved);
+        documentCanvas.setOnScroll(this::onDocumentScrolled);
+        documentCanvas.setOnTrackedBoundsChanged(this::showSelection);
         fillChoiceBoxes();
+        ImageCache.getShared().setCallbackExecutor(Platform::runLater);
         createRootElement();
     }
 
@@ -375,12 +646,21 @@ public class MainWindowController {
         StandardPanel panel = new StandardPanel(position, size);
         panel.setBackgroundColor(Color.WHITE);
         lense = new DocumentLense(panel);
+        lense.setLayerCache(new LayerCache(LayerCache.DEFAULT_MAX_BYTES));
+        if (documentCanvas.getBackendType() == RenderBackendType.AWT) {
+            lense.setTileCache(new TileCache(TileCache.DEFAULT_MAX_BYTES));
+        }
+        lense.setInvalidationListener(documentCanvas::requestDraw);
         documentCanvas.setLense(lense);
     }
 
     private void addDocumentCanvas() {
-        documentCanvas = new DocumentCanvas();
+        documentCanvas = new DocumentCanvas(RenderBackendType.fromSystemProperty());
         centerPane.getChildren().add(documentCanvas);
         documentCanvas.bindDimsToParent(centerPane);
+        // Added after the document canvas so it is drawn above it.
+        overlayCanvas = new OverlayCanvas();
+        centerPane.getChildren().add(overlayCanvas);
+        overlayCanvas.bindDimsToParent(centerPane);
     }
 }
@@ -0,0 +1,113 @@
+package drowsysaturn.sleepyhtmleditor.gui;
+
+import java.awt.Rectangle;
+
+import drowsysaturn.sleepyhtmleditor.editor.Viewport;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Transparent canvas stacked above a DocumentCanvas, which draws outlines of elements like the
+ * selection box. Outlines are placed with the absolute layout bounds of elements, so changing them
+ * only redraws this canvas and never renders the document. They are drawn through the same
+ * Viewport as the document, while the resize handle keeps its size on screen. Mouse events pass
+ * through to the canvas below. Other outlines, like hovered elements or guides, belong here as well.
+ *
+ * Example usage:
+ * <code>
+ * OverlayCanvas overlay = new OverlayCanvas();
+ * parent.getChildren().addAll(documentCanvas, overlay);
+ * overlay.bindDimsToParent(parent);
+ * overlay.setSelection(element.getLayoutBounds(), true);
+ * </code>
+ */
+public class OverlayCanvas extends ResizableCanvas {
+    /**
+     * Size of the square at the bottom right corner of the selection which resizes it when dragged.
+     */
+    public static final int RESIZE_HANDLE_SIZE = 8;
+
+    private static final Color SELECTION_COLOR = Color.RED;
+
+    /**
+     * Absolute bounds of the selected element, or null.
+     */
+    private Rectangle selection = null;
+
+    /**
+     * The selection shows a resize handle.
+     */
+    private boolean resizable = false;
+
+    private Viewport viewport = Viewport.IDENTITY;
+
+    public OverlayCanvas() {
+        setMouseTransparent(true);
+    }
+
+    /**
+     * Outlines the given bounds as the selection. Redraws only if the selection changed.
+     * @param bounds Absolute bounds of the selected element, or null to clear the selection.
+     * @param resizable Shows a resize handle at the bottom right corner.
+     */
+    public void setSelection(Rectangle bounds, boolean resizable) {
+        if (bounds == null ? selection == null : bounds.equals(selection) && resizable == this.resizable) {
+            return;
+        }
+        selection = bounds == null ? null : new Rectangle(bounds);
+        this.resizable = resizable;
+        requestDraw();
+    }
+
+    /**
+     * Draws the outlines through the viewport, which should be the viewport of the document below.
+     * @throws IllegalArgumentException If the viewport is null.
+     */
+    public void setViewport(Viewport viewport) {
+        if (viewport == null) {
+            throw new IllegalArgumentException("Viewport must not be null");
+        }
+        if (!viewport.equals(this.viewport)) {
+            this.viewport = viewport;
+            requestDraw();
+        }
+    }
+
+    /**
+     * Gets the bounds of the selection, or null without a selection.
+     */
+    public Rectangle getSelection() {
+        return selection == null ? null : new Rectangle(selection);
+    }
+
+    /**
+     * Determines if the point, in screen pixels, is on the resize handle of the selection. The
+     * handle reaches a little outside of the selection so small elements stay easy to resize.
+     */
+    public boolean isOnResizeHandle(int x, int y) {
+        if (selection == null || !resizable) {
+            return false;
+        }
+        Rectangle bounds = viewport.toView(selection);
+        int right = bounds.x + bounds.width, bottom = bounds.y + bounds.height;
+        return x >= right - RESIZE_HANDLE_SIZE && x < right + RESIZE_HANDLE_SIZE/2
+            && y >= bottom - RESIZE_HANDLE_SIZE && y < bottom + RESIZE_HANDLE_SIZE/2;
+    }
+
+    @Override
+    public void draw() {
+        GraphicsContext ctx = getGraphicsContext2D();
+        ctx.clearRect(0, 0, getWidth(), getHeight());
+        if (selection == null) {
+            return;
+        }
+        Rectangle bounds = viewport.toView(selection);
+        ctx.setStroke(SELECTION_COLOR);
+        ctx.strokeRect(bounds.x + 0.5, bounds.y + 0.5, Math.max(bounds.width - 1, 0), Math.max(bounds.height - 1, 0));
+        if (resizable) {
+            ctx.setFill(SELECTION_COLOR);
+            ctx.fillRect(bounds.x + bounds.width - RESIZE_HANDLE_SIZE, bounds.y + bounds.height - RESIZE_HANDLE_SIZE,
+                RESIZE_HANDLE_SIZE, RESIZE_HANDLE_SIZE);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package drowsysaturn.sleepyhtmleditor.gui;
+
+/**
+ * How a DocumentCanvas draws the document. Chosen at startup with the system property
+ * sleepyhtmleditor.renderer, which is either "awt" or "javafx".
+ */
+public enum RenderBackendType {
+    /**
+     * Frames are painted into BufferedImages on a RenderThread and copied to the canvas.
+     */
+    AWT,
+
+    /**
+     * The document is drawn straight into the canvas on the FX thread with an FxRenderBackend,
+     * which leaves rasterizing to the JavaFX graphics pipeline.
+     */
+    JAVAFX;
+
+    /**
+     * System property choosing the backend.
+     */
+    public static final String PROPERTY = "sleepyhtmleditor.renderer";
+
+    /**
+     * Gets the backend chosen by the system property, or AWT if it is not set.
+     * @throws IllegalArgumentException If the property names an unknown backend.
+     */
+    public static RenderBackendType fromSystemProperty() {
+        String name = System.getProperty(PROPERTY);
+        if (name == null || name.isEmpty()) {
+            return AWT;
+        }
+        for (RenderBackendType type : values()) {
+            if (type.name().equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown renderer: " + name);
+    }
+}
@@ -0,0 +1,16 @@
+package drowsysaturn.sleepyhtmleditor.gui;
+
+/**
+ * Quality of the frames rendered by a RenderThread.
+ */
+public enum RenderQuality {
+    /**
+     * Quick frames at reduced resolution, scaled up with nearest neighbor scaling. Used while the window is resized.
+     */
+    DRAFT,
+
+    /**
+     * Frames at full resolution, repainting only what changed.
+     */
+    FULL
+}
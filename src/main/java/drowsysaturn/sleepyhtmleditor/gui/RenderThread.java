@@ -0,0 +1,475 @@
+package drowsysaturn.sleepyhtmleditor.gui;
+
+import java.awt.Rectangle;
+import java.util.function.Consumer;
+
+import drowsysaturn.sleepyhtmleditor.editor.DocumentElement;
+import drowsysaturn.sleepyhtmleditor.editor.DocumentLense;
+import drowsysaturn.sleepyhtmleditor.editor.DragSnapshot;
+import drowsysaturn.sleepyhtmleditor.editor.FrameBuffer;
+
+/**
+ * Renders a document on a thread of its own and hands finished frames to the FX thread through
+ * triple buffering. The render thread paints into a back buffer, swaps it with the ready buffer
+ * when it is done, and the FX thread swaps the ready buffer with the one it presents. Neither
+ * thread waits for the other, and the FX thread always gets the latest finished frame.
+ *
+ * Every buffer remembers the damage from frames painted into other buffers, so only the damaged
+ * part of a buffer is repainted. A frame is painted while holding the document's read lock, and
+ * when an edit starts, a frame still being painted is cut short and painted again after the edit.
+ *
+ * With RenderQuality.DRAFT the whole document is painted at a fraction of the resolution and scaled
+ * up with nearest neighbor scaling, which is much cheaper when every frame has a new size, like
+ * while the window is resized. The next full quality frame repaints everything.
+ *
+ * Drag snapshots are taken on the render thread as well, between frames, so starting a drag does
+ * not paint the document on the thread handling the mouse.
+ *
+ * Example usage:
+ * <code>
+ * RenderThread renderThread = new RenderThread(lense, canvas::requestPresent);
+ * renderThread.setSize(800, 600);
+ * renderThread.requestFrame();
+ * // Later, on the FX thread
+ * RenderThread.Frame frame = renderThread.takeFrame();
+ * </code>
+ */
+public class RenderThread {
+    /**
+     * Draft frames are painted at this fraction of the width and height.
+     */
+    private static final int DRAFT_DIVISOR = 2;
+
+    private final DocumentLense lense;
+
+    /**
+     * Called on the render thread whenever a new frame is ready to be taken.
+     */
+    private final Runnable frameReady;
+
+    private final Thread thread;
+
+    /**
+     * Buffer painted by the render thread.
+     */
+    private Frame back = new Frame();
+
+    /**
+     * Latest finished buffer. Guarded by this.
+     */
+    private Frame ready = new Frame();
+
+    /**
+     * Buffer presented by the FX thread.
+     */
+    private Frame front = new Frame();
+
+    /**
+     * The ready buffer holds a frame which has not been taken yet. Guarded by this.
+     */
+    private boolean readyIsNew = false;
+
+    /**
+     * A frame was requested since the render thread last started one. Guarded by this.
+     */
+    private boolean requested = false;
+
+    private boolean stopped = false;
+
+    /**
+     * Dimensions of the requested frames. Guarded by this.
+     */
+    private int width = 0, height = 0;
+
+    /**
+     * Quality of the requested frames. Guarded by this.
+     */
+    private RenderQuality quality = RenderQuality.FULL;
+
+    /**
+     * Reduced resolution buffer painted for draft frames, or null before the first draft.
+     */
+    private FrameBuffer draftBuffer = null;
+
+    /**
+     * The last published frame shows the document as of the last layout. Only used by the render thread.
+     */
+    private boolean upToDate = false;
+
+    /**
+     * Area damaged by the last layout, reused between frames.
+     */
+    private final Rectangle damage = new Rectangle();
+
+    private long renderedFrames = 0, cancelledFrames = 0;
+
+    /**
+     * Latest edit generation at which the document needed no repaint, so the last published frame
+     * still showed it. Guarded by this.
+     */
+    private long unchangedGeneration = -1;
+
+    /**
+     * Element whose bounds are copied into published frames, or null. Guarded by this.
+     */
+    private DocumentElement trackedElement = null;
+
+    /**
+     * Element to take a drag snapshot of before the next frame, or null. Guarded by this.
+     */
+    private DocumentElement snapshotElement = null;
+
+    private Consumer<DragSnapshot> snapshotTaken = null;
+
+    public RenderThread(DocumentLense lense, Runnable frameReady) {
+        this.lense = lense;
+        this.frameReady = frameReady;
+        thread = new Thread(this::run, "Document renderer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Sets the dimensions of the frames to render. Takes effect with the next requested frame.
+     */
+    public synchronized void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Sets the quality of the frames to render. Takes effect with the next requested frame.
+     */
+    public synchronized void setQuality(RenderQuality quality) {
+        this.quality = quality;
+    }
+
+    public synchronized RenderQuality getQuality() {
+        return quality;
+    }
+
+    /**
+     * Sets the element whose layout bounds are copied into the frames published from now on.
+     * @param element The element or null to track nothing.
+     */
+    public synchronized void setTrackedElement(DocumentElement element) {
+        trackedElement = element;
+    }
+
+    /**
+     * Takes a DragSnapshot of the element at the size of the requested frames on the render thread,
+     * before the next frame, and passes it to the callback on the render thread. The callback gets
+     * null if the element is no longer part of the document. A snapshot cut short by an edit is
+     * taken again after the edit. Replaces a snapshot request which was not taken yet.
+     * May be called from any thread.
+     */
+    public synchronized void requestDragSnapshot(DocumentElement element, Consumer<DragSnapshot> callback) {
+        snapshotElement = element;
+        snapshotTaken = callback;
+        notifyAll();
+    }
+
+    /**
+     * Renders a new frame if the document changed. May be called from any thread.
+     */
+    public synchronized void requestFrame() {
+        requested = true;
+        notifyAll();
+    }
+
+    /**
+     * Takes the latest finished frame for presenting. The previously taken frame must no longer be used.
+     * Must only be called by the thread presenting the frames.
+     * @return The frame or null if no frame finished since the last call.
+     */
+    public synchronized Frame takeFrame() {
+        if (!readyIsNew) {
+            return null;
+        }
+        Frame taken = ready;
+        ready = front;
+        front = taken;
+        readyIsNew = false;
+        return taken;
+    }
+
+    /**
+     * Stops the render thread after the frame it is painting.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    public synchronized long getRenderedFrames() {
+        return renderedFrames;
+    }
+
+    /**
+     * Gets the number of frames which were cut short by an edit and painted again.
+     */
+    public synchronized long getCancelledFrames() {
+        return cancelledFrames;
+    }
+
+    /**
+     * Gets the latest edit generation at which an edit changed nothing visible, so no frame was
+     * published for it and the last published frame is still current.
+     */
+    public synchronized long getUnchangedGeneration() {
+        return unchangedGeneration;
+    }
+
+    private void run() {
+        while (true) {
+            int frameWidth, frameHeight;
+            RenderQuality frameQuality;
+            DocumentElement dragElement;
+            Consumer<DragSnapshot> dragCallback;
+            synchronized (this) {
+                while (!requested && snapshotElement == null && !stopped) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                if (stopped) {
+                    return;
+                }
+                frameWidth = width;
+                frameHeight = height;
+                frameQuality = quality;
+                dragElement = snapshotElement;
+                dragCallback = snapshotTaken;
+                snapshotElement = null;
+                snapshotTaken = null;
+                if (dragElement == null) {
+                    requested = false;
+                }
+            }
+            if (dragElement != null) {
+                takeDragSnapshot(dragElement, dragCallback, frameWidth, frameHeight);
+                continue;
+            }
+            if (frameWidth > 0 && frameHeight > 0 && renderFrame(frameWidth, frameHeight, frameQuality)) {
+                frameReady.run();
+            }
+        }
+    }
+
+    /**
+     * Takes the requested drag snapshot, or requests it again if an edit cut it short.
+     */
+    private void takeDragSnapshot(DocumentElement element, Consumer<DragSnapshot> callback, int frameWidth, int frameHeight) {
+        DragSnapshot snapshot = null;
+        lense.getReadLock().lock();
+        try {
+            if (frameWidth > 0 && frameHeight > 0 && lense.getElementById(element.getId()) == element) {
+                snapshot = lense.snapshotForDrag(element, frameWidth, frameHeight);
+                if (snapshot == null) {
+                    synchronized (this) {
+                        if (snapshotElement == null) {
+                            snapshotElement = element;
+                            snapshotTaken = callback;
+                        }
+                    }
+                    return;
+                }
+            }
+        }
+        finally {
+            lense.getReadLock().unlock();
+        }
+        callback.accept(snapshot);
+    }
+
+    /**
+     * Paints the back buffer and publishes it if anything changed.
+     * @return True if a new frame was published.
+     */
+    private boolean renderFrame(int frameWidth, int frameHeight, RenderQuality frameQuality) {
+        lense.getReadLock().lock();
+        try {
+            long generation = lense.getEditGeneration();
+            lense.collectDamage(frameWidth, frameHeight, damage);
+            synchronized (this) {
+                // The ready and front buffers are not painted here, but need the damage when they become the back buffer.
+                ready.addPendingDamage(damage);
+                front.addPendingDamage(damage);
+            }
+            if (frameQuality == RenderQuality.DRAFT) {
+                return renderDraft(frameWidth, frameHeight, generation);
+            }
+            Frame frame = back;
+            if (frame.buffer == null || !frame.buffer.hasSize(frameWidth, frameHeight)) {
+                frame.buffer = new FrameBuffer(frameWidth, frameHeight);
+                frame.pendingDamage.setBounds(0, 0, frameWidth, frameHeight);
+            } else {
+                frame.addPendingDamage(damage);
+            }
+            Rectangle region = frame.pendingDamage;
+            if (region.isEmpty()) {
+                if (upToDate) {
+                    synchronized (this) {
+                        unchangedGeneration = generation;
+                    }
+                }
+                return false;
+            }
+            if (!lense.renderRegion(frame.buffer, region, generation)) {
+                // An edit is waiting. The region stays pending and is painted after the edit.
+                synchronized (this) {
+                    cancelledFrames++;
+                    requested = true;
+                }
+                upToDate = false;
+                return false;
+            }
+            publish(frame, region, generation);
+            return true;
+        }
+        finally {
+            lense.getReadLock().unlock();
+        }
+    }
+
+    /**
+     * Paints the whole document into the draft buffer and scales it up into the back buffer.
+     * Must be called while holding the read lock, after the layout.
+     * @return True if a new frame was published.
+     */
+    private boolean renderDraft(int frameWidth, int frameHeight, long generation) {
+        if (damage.isEmpty() && upToDate) {
+            synchronized (this) {
+                unchangedGeneration = generation;
+            }
+            return false;
+        }
+        int draftWidth = Math.max(1, frameWidth/DRAFT_DIVISOR);
+        int draftHeight = Math.max(1, frameHeight/DRAFT_DIVISOR);
+        if (draftBuffer == null || !draftBuffer.hasSize(draftWidth, draftHeight)) {
+            draftBuffer = new FrameBuffer(draftWidth, draftHeight);
+        }
+        if (!lense.renderScaled(draftBuffer, (double)draftWidth/frameWidth, generation)) {
+            synchronized (this) {
+                cancelledFrames++;
+                requested = true;
+            }
+            upToDate = false;
+            return false;
+        }
+        Frame frame = back;
+        if (frame.buffer == null || !frame.buffer.hasSize(frameWidth, frameHeight)) {
+            frame.buffer = new FrameBuffer(frameWidth, frameHeight);
+        }
+        frame.buffer.copyScaled(draftBuffer);
+        Rectangle region = new Rectangle(0, 0, frameWidth, frameHeight);
+        publish(frame, region, generation);
+        synchronized (this) {
+            // Every buffer is repainted whole by the next full quality frame.
+            frame.pendingDamage.setBounds(region);
+            back.pendingDamage.setBounds(region);
+            front.pendingDamage.setBounds(region);
+        }
+        return true;
+    }
+
+    /**
+     * Swaps the painted back buffer with the ready buffer.
+     */
+    private synchronized void publish(Frame frame, Rectangle region, long generation) {
+        if (readyIsNew) {
+            // The previous frame was never presented, so its changes are uploaded with this one.
+            frame.uploadArea.setBounds(ready.uploadArea);
+            frame.uploadArea.add(region);
+        } else {
+            frame.uploadArea.setBounds(region);
+        }
+        frame.pendingDamage.setBounds(0, 0, 0, 0);
+        frame.generation = generation;
+        // The read lock is held and the layout is done, so the bounds match the painted frame.
+        frame.trackedElement = trackedElement;
+        frame.hasTrackedBounds = trackedElement != null && lense.getElementById(trackedElement.getId()) == trackedElement;
+        if (frame.hasTrackedBounds) {
+            frame.trackedBounds.setBounds(trackedElement.getLayoutBounds());
+        }
+        upToDate = true;
+        back = ready;
+        ready = frame;
+        readyIsNew = true;
+        renderedFrames++;
+    }
+
+    /**
+     * One of the three buffers.
+     */
+    public static class Frame {
+        private FrameBuffer buffer;
+
+        /**
+         * Area which changed since this buffer was last painted. Only used by the render thread.
+         */
+        private final Rectangle pendingDamage = new Rectangle();
+
+        /**
+         * Area which changed since the last frame taken for presenting.
+         */
+        private final Rectangle uploadArea = new Rectangle();
+
+        private long generation;
+
+        private DocumentElement trackedElement;
+
+        private boolean hasTrackedBounds;
+
+        private final Rectangle trackedBounds = new Rectangle();
+
+        public FrameBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * Gets the edit generation of the document the frame was rendered from.
+         * @see DocumentLense#getEditGeneration()
+         */
+        public long getGeneration() {
+            return generation;
+        }
+
+        /**
+         * Gets the element which was tracked when the frame was painted, or null.
+         */
+        public DocumentElement getTrackedElement() {
+            return trackedElement;
+        }
+
+        /**
+         * Gets the absolute layout bounds of the tracked element in this frame.
+         * @return The bounds or null if no element was tracked or it is not part of the document.
+         */
+        public Rectangle getTrackedBounds() {
+            return hasTrackedBounds ? trackedBounds : null;
+        }
+
+        /**
+         * Gets the area which changed since the previously taken frame.
+         * Frames of a different size must be presented whole.
+         */
+        public Rectangle getUploadArea() {
+            return uploadArea;
+        }
+
+        private void addPendingDamage(Rectangle area) {
+            if (area.isEmpty()) {
+                return;
+            }
+            if (pendingDamage.isEmpty()) {
+                pendingDamage.setBounds(area);
+            } else {
+                pendingDamage.add(area);
+            }
+        }
+    }
+}
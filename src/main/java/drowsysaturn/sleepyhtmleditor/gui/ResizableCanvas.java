@@ -5,7 +5,8 @@ import javafx.scene.layout.Region;
 
 /**
  * This is the same as the regular JavaFX Canvas component, but with the added
- * benefit of being resizable. 
+ * benefit of being resizable. Resizing requests a frame from the canvas's FrameScheduler,
+ * so changing both dimensions at once draws once.
  * Example:
  * <code>
  * Region parent = ...;
@@ -15,13 +16,33 @@ import javafx.scene.layout.Region;
  * </code>
  */
 public abstract class ResizableCanvas extends Canvas {
+    private final FrameScheduler frameScheduler = new FrameScheduler(this::draw);
+
     public ResizableCanvas() {
-        widthProperty().addListener(evt -> draw());
-        heightProperty().addListener(evt -> draw());
+        widthProperty().addListener(evt -> resized());
+        heightProperty().addListener(evt -> resized());
     }
 
     public abstract void draw();
 
+    /**
+     * Called on the FX thread whenever the width or height changes. Requests a frame by default.
+     */
+    protected void resized() {
+        requestDraw();
+    }
+
+    /**
+     * Draws the canvas during the next pulse. May be called from any thread.
+     */
+    public void requestDraw() {
+        frameScheduler.requestFrame();
+    }
+
+    public FrameScheduler getFrameScheduler() {
+        return frameScheduler;
+    }
+
     @Override
     public boolean isResizable() {
         return true;
@@ -0,0 +1,46 @@
+package drowsysaturn.sleepyhtmleditor.html;
+
+/**
+ * Statistics about a finished HtmlExporter export. Byte counts are for the UTF-8 encoded document.
+ */
+public class ExportReport {
+    private final int elementCount;
+
+    private final int sharedStyleCount;
+
+    private final long bytesWritten;
+
+    private final long bytesSaved;
+
+    public ExportReport(int elementCount, int sharedStyleCount, long bytesWritten, long bytesSaved) {
+        this.elementCount = elementCount;
+        this.sharedStyleCount = sharedStyleCount;
+        this.bytesWritten = bytesWritten;
+        this.bytesSaved = bytesSaved;
+    }
+
+    /**
+     * Gets the number of exported elements, each with its own geometry class.
+     */
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    /**
+     * Gets the number of unique style classes shared between elements.
+     */
+    public int getSharedStyleCount() {
+        return sharedStyleCount;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Gets how many bytes smaller the document is than if every element had its own copy of its style.
+     */
+    public long getBytesSaved() {
+        return bytesSaved;
+    }
+}
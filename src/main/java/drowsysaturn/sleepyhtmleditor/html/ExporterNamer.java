@@ -1,14 +1,21 @@
 package drowsysaturn.sleepyhtmleditor.html;
 
 /**
- * Basically a counter except for names. Since the tree will be traversed in the same
- * order twice for style and body, the names will line up correctly. More information
- * on why the tree is traversed twice in HtmlExporter.
+ * Basically a counter except for names. The same name is used for an element's CSS class
+ * and its div, which are written during the same traversal in HtmlExporter. Shared style
+ * classes are numbered by a namer of their own.
  */
 public class ExporterNamer {
     private int index = 0;
 
     public String nextName() {
-        return "e" + (++index);
+        return "e" + nextIndex();
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the number of the next name without building the name.
+     */
+    public int nextIndex() {
+        return ++index;
+    }
+}
@@ -1,22 +1,27 @@
 package drowsysaturn.sleepyhtmleditor.html;
 
-import java.awt.Color;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
 
 import drowsysaturn.sleepyhtmleditor.editor.DocumentElement;
 import drowsysaturn.sleepyhtmleditor.editor.DocumentLense;
 import drowsysaturn.sleepyhtmleditor.editor.ScreenCoordinate;
-import drowsysaturn.sleepyhtmleditor.editor.StandardPanel;
 import drowsysaturn.sleepyhtmleditor.editor.TextPanel;
 
 /**
  * Converts a DocumentElement tree into a single HTML document with appropriate CSS.
  * 
- * The document tree is traversed twice to while exporting because the file is not kept in memory.
- * The tree is written out as the tree is traversed to lower memory usage.
+ * The document tree is traversed once. The stylesheet is streamed to the output as the tree is
+ * traversed. The body markup, including the text of every element, has to follow the stylesheet,
+ * so it is kept in memory until the traversal is done and then written after the stylesheet.
+ * Elements with the same style share one CSS class, and each element has a small class of its own
+ * for its position and size.
  */
 public class HtmlExporter {
     private DocumentLense lense;
@@ -29,130 +34,208 @@ public class HtmlExporter {
     }
 
     /**
-     * Writes the HTML document to the file. Calls necessary functions to
-     * write individual parts of the document.
+     * Writes the HTML document to the file, replacing its contents.
      */
-    public void write(File file) throws IOException {
-        PrintWriter writer = new PrintWriter(new FileOutputStream(file));
-        writer.println("<!DOCTYPE html PUBLIC>");
-        writer.println("<html>");
-        writer.println("<head>");
-        writer.print("\t<title>");
-        writeTitle(writer);
-        writer.println("</title>");
-        writer.println("<style>");
-        writeStyle(writer);
-        writer.println("</style>");
-        writer.println("</head>");
-        writer.println("<body>");
-        writeBody(writer);
-        writer.println("</body>");
-        writer.println("</html>");
-        writer.flush();
-        writer.close();
+    public ExportReport write(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, 
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return write(channel);
+        }
     }
 
     /**
-     * Writes the title that was earlier specified to the output document.
+     * Writes the HTML document to the stream as UTF-8. The stream is flushed but not closed.
+     */
+    public ExportReport write(OutputStream stream) throws IOException {
+        ExportReport report = write(Channels.newChannel(stream));
+        stream.flush();
+        return report;
+    }
+
+    /**
+     * Writes the HTML document to the channel as UTF-8. The channel is not closed.
      */
-    public void writeTitle(PrintWriter writer) throws IOException {
-        writer.print(documentTitle);
+    public ExportReport write(WritableByteChannel channel) throws IOException {
+        return writeDocument(new HtmlOutput(channel));
     }
 
     /**
-     * Writes the style to the specified printwriter starting from the root node of the DocumentLense.
+     * Writes the HTML document to the appendable. Byte counts in the report are for UTF-8.
      */
-    public void writeStyle(PrintWriter writer) throws IOException {
-        writeStyleTree(writer, new ExporterNamer(), lense.getRoot());
+    public ExportReport write(Appendable appendable) throws IOException {
+        return writeDocument(new HtmlOutput(appendable));
     }
 
-    public void writeBody(PrintWriter writer) throws IOException {
-        writeBodyTree(writer, new ExporterNamer(), lense.getRoot());
+    /**
+     * Writes the whole document. Calls necessary functions to write individual parts of the document.
+     */
+    private ExportReport writeDocument(HtmlOutput output) throws IOException {
+        Export export = new Export(output);
+        output.append("<!DOCTYPE html PUBLIC>\n");
+        output.append("<html>\n");
+        output.append("<head>\n");
+        output.append("\t<meta charset=\"utf-8\">\n");
+        output.append("\t<title>");
+        writeTitle(output);
+        output.append("</title>\n");
+        output.append("<style>\n");
+        writeTree(export, lense.getRoot());
+        output.append("</style>\n");
+        output.append("</head>\n");
+        output.append("<body>\n");
+        output.append(export.body);
+        output.append("</body>\n");
+        output.append("</html>\n");
+        output.flush();
+        return new ExportReport(export.elementCount, export.sharedStyles.size(), output.getByteCount(), export.bytesSaved);
     }
 
     /**
-     * Writes necessary CSS starting from element and descending the tree.
-     * The namer is a name generator and since the body and css descend the tree at the same rate, allows the
-     * names to correspond correctly.
-     * @param writer Location to write the generated stylesheet.
+     * Writes the title that was earlier specified to the output document.
      */
-    private void writeStyleTree(PrintWriter writer, ExporterNamer namer, DocumentElement element) throws IOException {
-        String name = namer.nextName();
-        writer.println("." + name + " {");
+    private void writeTitle(HtmlOutput output) throws IOException {
+        output.append(documentTitle);
+    }
+
+    /**
+     * Writes the CSS rules of element to the stylesheet and its div to the body, then does the same for its descendants.
+     * The div gets a shared class for its style and a class of its own for its geometry.
+     */
+    private void writeTree(Export export, DocumentElement element) throws IOException {
+        SharedStyle shared = getSharedStyle(export, new StyleKey(element));
+        int name = export.elementNamer.nextIndex();
+        writeGeometry(export.style, name, element);
+        HtmlOutput body = export.body;
+        body.append("<div class=\"");
+        long classStart = body.getByteCount();
+        body.append('s').append(shared.name).append(' ');
+        // Without sharing, the style would be repeated in the element's own rule instead of being named here.
+        export.bytesSaved += shared.declarationBytes - (body.getByteCount() - classStart);
+        body.append('e').append(name).append("\">");
         if (element instanceof TextPanel) {
-            TextPanel elementTextPanel = (TextPanel)element;
-            writer.println("font:" + elementTextPanel.getFontSize() + "px " + elementTextPanel.getFontFamily() + ";");
-            writer.println("color: " + colorRgba(elementTextPanel.getForegroundColor()) + ";");
+            body.append(((TextPanel)element).getText());
+        }
+        export.elementCount++;
+        for (DocumentElement child : element.getChildren()) {
+            writeTree(export, child);
         }
-        if (element instanceof StandardPanel) {
-            StandardPanel elementStandardPanel = (StandardPanel)element;
-            writer.println("background-color: " + colorRgba(elementStandardPanel.getBackgroundColor()) + ";");
-            writer.println("display: block;");
-            switch (elementStandardPanel.getBackgroundStyle()) {
+        body.append("</div>\n");
+    }
+
+    /**
+     * Gets the shared class for the style, writing its CSS rule the first time the style is seen.
+     */
+    private SharedStyle getSharedStyle(Export export, StyleKey key) throws IOException {
+        SharedStyle shared = export.sharedStyles.get(key);
+        if (shared != null) {
+            return shared;
+        }
+        shared = new SharedStyle(export.styleNamer.nextIndex());
+        HtmlOutput style = export.style;
+        long ruleStart = style.getByteCount();
+        style.append(".s").append(shared.name).append(" {\n");
+        long declarationStart = style.getByteCount();
+        writeDeclarations(style, key);
+        shared.declarationBytes = style.getByteCount() - declarationStart;
+        style.append("}\n");
+        export.bytesSaved -= style.getByteCount() - ruleStart;
+        export.sharedStyles.put(key, shared);
+        return shared;
+    }
+
+    /**
+     * Writes the CSS declarations for everything except the geometry of an element.
+     */
+    private void writeDeclarations(HtmlOutput style, StyleKey key) throws IOException {
+        if (key.isText()) {
+            style.append("font:").append(key.getFontSize()).append("px ").append(key.getFontFamily()).append(";\n");
+            style.append("color: ").appendColor(key.getForegroundColor()).append(";\n");
+        }
+        if (key.isPanel()) {
+            style.append("background-color: ").appendColor(key.getBackgroundColor()).append(";\n");
+            style.append("display: block;\n");
+            switch (key.getBackgroundStyle()) {
                 case SOLID_COLOR:
                     break;
                 case STRETCH:
-                    writer.println("background-repeat: no-repeat;");
-                    writer.println("background-size: 100% 100%;");
-                    if (elementStandardPanel.getImageFile() != null) {
-                        writer.println("background-image: url('" + elementStandardPanel.getImageFile().getName() + "');");
-                    }
+                    style.append("background-repeat: no-repeat;\n");
+                    style.append("background-size: 100% 100%;\n");
+                    writeBackgroundImage(style, key);
                     break;
                 case COVER:
-                    writer.println("background-repeat: no-repeat;");
-                    writer.println("background-size: cover;");
-                    if (elementStandardPanel.getImageFile() != null) {
-                        writer.println("background-image: url('" + elementStandardPanel.getImageFile().getName() + "');");
-                    }
+                    style.append("background-repeat: no-repeat;\n");
+                    style.append("background-size: cover;\n");
+                    writeBackgroundImage(style, key);
                     break;
                 case ORIGINAL:
-                    writer.println("background-repeat: no-repeat;");
-                    if (elementStandardPanel.getImageFile() != null) {
-                        writer.println("background-image: url('" + elementStandardPanel.getImageFile().getName() + "');");
-                    }
+                    style.append("background-repeat: no-repeat;\n");
+                    writeBackgroundImage(style, key);
                     break;
                 case REPEAT:
-                    writer.println("background-repeat: repeat;");
-                    if (elementStandardPanel.getImageFile() != null) {
-                        writer.println("background-image: url('" + elementStandardPanel.getImageFile().getName() + "');");
-                    }
+                    style.append("background-repeat: repeat;\n");
+                    writeBackgroundImage(style, key);
                     break;
             }
         }
+        style.append("position: absolute;\n");
+    }
+
+    /**
+     * Writes the CSS rule holding the position and size of a single element.
+     */
+    private void writeGeometry(HtmlOutput style, int name, DocumentElement element) throws IOException {
         ScreenCoordinate position = element.getPosition();
         ScreenCoordinate size = element.getSize();
-        writer.println("position: absolute;");
-        writer.println("left: calc(" + position.getPercentX()*100 + "vw + " + position.getPixelsX() + "px);");
-        writer.println("top: calc(" + position.getPercentY()*100 + "vh + " + position.getPixelsY() + "px);");
-        writer.println("width: calc(" + size.getPercentX()*100 + "vw + " + size.getPixelsX() + "px);");
-        writer.println("height: calc(" + size.getPercentY()*100 + "vh + " + size.getPixelsY() + "px);");
-        writer.println("}");
-        for (DocumentElement child : element.getChildren()) {
-            writeStyleTree(writer, namer, child);
+        style.append(".e").append(name).append(" {\n");
+        style.append("left: calc(").append(position.getPercentX()*100).append("vw + ").append(position.getPixelsX()).append("px);\n");
+        style.append("top: calc(").append(position.getPercentY()*100).append("vh + ").append(position.getPixelsY()).append("px);\n");
+        style.append("width: calc(").append(size.getPercentX()*100).append("vw + ").append(size.getPixelsX()).append("px);\n");
+        style.append("height: calc(").append(size.getPercentY()*100).append("vh + ").append(size.getPixelsY()).append("px);\n");
+        style.append("}\n");
+    }
+
+    private void writeBackgroundImage(HtmlOutput style, StyleKey key) throws IOException {
+        if (key.getImageName() != null) {
+            style.append("background-image: url('").append(key.getImageName()).append("');\n");
         }
     }
 
     /**
-     * Converts the specified AWT Color to a valid CSS rule string.
+     * State of a single export.
      */
-    private String colorRgba(Color color) {
-        return "rgba(" + color.getRed() + ", " + color.getGreen() + ", " + color.getBlue() + ", " + ((double)color.getAlpha()/255) + ")";
+    private static class Export {
+        private final HtmlOutput style;
+
+        private final HtmlOutput body = new HtmlOutput();
+
+        private final ExporterNamer elementNamer = new ExporterNamer();
+
+        private final ExporterNamer styleNamer = new ExporterNamer();
+
+        private final HashMap<StyleKey, SharedStyle> sharedStyles = new HashMap<StyleKey, SharedStyle>();
+
+        private int elementCount = 0;
+
+        private long bytesSaved = 0;
+
+        private Export(HtmlOutput style) {
+            this.style = style;
+        }
     }
 
     /**
-     * Writes necessary HTML starting at the node element and descending the tree.
-     * The namer is a name generator and since the body and css descend the tree at the same rate, allows the
-     * names to correspond correctly.
+     * A CSS class shared by every element with the same style.
      */
-    private void writeBodyTree(PrintWriter writer, ExporterNamer namer, DocumentElement element) throws IOException {
-        String name = namer.nextName();
-        writer.print("<div class=\"" + name + "\">");
-        if (element instanceof TextPanel) {
-            writer.print(((TextPanel)element).getText());
-        }
-        for (DocumentElement child : element.getChildren()) {
-            writeBodyTree(writer, namer, child);
+    private static class SharedStyle {
+        private final int name;
+
+        /**
+         * Size of the declarations, which each element would repeat without the shared class.
+         */
+        private long declarationBytes;
+
+        private SharedStyle(int name) {
+            this.name = name;
         }
-        writer.println("</div>");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,280 @@
+package drowsysaturn.sleepyhtmleditor.html;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered text output used by HtmlExporter. Numbers and colors are formatted straight into a
+ * reusable char buffer. When the buffer fills up it is encoded as UTF-8 into a byte channel, or
+ * copied to an Appendable. Without either, the buffer grows and keeps everything in memory.
+ *
+ * Example usage:
+ * <code>
+ * HtmlOutput output = new HtmlOutput(fileChannel);
+ * output.append("left: ").append(25).append("px;\n");
+ * output.flush();
+ * </code>
+ */
+public class HtmlOutput {
+    private static final int BUFFER_SIZE = 64*1024;
+
+    /**
+     * Number of decimal places kept by append(double).
+     */
+    private static final int DECIMAL_PLACES = 4;
+
+    private static final long DECIMAL_SCALE = 10000;
+
+    private char[] buffer;
+
+    private int length = 0;
+
+    private final WritableByteChannel channel;
+
+    private final Appendable appendable;
+
+    private final CharsetEncoder encoder;
+
+    private final ByteBuffer bytes;
+
+    private final CharBuffer chars;
+
+    /**
+     * Number of bytes appended so far, counted as UTF-8.
+     */
+    private long byteCount = 0;
+
+    /**
+     * The last character appended was a high surrogate, which is counted along with the next character.
+     */
+    private boolean pendingHighSurrogate = false;
+
+    /**
+     * Creates an output which encodes text as UTF-8 into the channel.
+     */
+    public HtmlOutput(WritableByteChannel channel) {
+        this.buffer = new char[BUFFER_SIZE];
+        this.channel = channel;
+        this.appendable = null;
+        this.encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocateDirect((int)(BUFFER_SIZE*encoder.maxBytesPerChar()));
+        this.chars = CharBuffer.wrap(buffer);
+    }
+
+    /**
+     * Creates an output which copies text to the appendable.
+     */
+    public HtmlOutput(Appendable appendable) {
+        this.buffer = new char[BUFFER_SIZE];
+        this.channel = null;
+        this.appendable = appendable;
+        this.encoder = null;
+        this.bytes = null;
+        this.chars = CharBuffer.wrap(buffer);
+    }
+
+    /**
+     * Creates an output which keeps all text in memory until it is appended to another output.
+     */
+    public HtmlOutput() {
+        this.buffer = new char[BUFFER_SIZE];
+        this.channel = null;
+        this.appendable = null;
+        this.encoder = null;
+        this.bytes = null;
+        this.chars = null;
+    }
+
+    /**
+     * Gets the number of bytes appended so far, counted as UTF-8. Unpaired surrogates count as the
+     * single byte they are replaced with, and a high surrogate at the end is only counted once the
+     * next character is appended or the output is flushed.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    public HtmlOutput append(char c) throws IOException {
+        if (length == buffer.length) {
+            drain();
+        }
+        buffer[length++] = c;
+        countBytes(c);
+        return this;
+    }
+
+    private void countBytes(char c) {
+        if (pendingHighSurrogate) {
+            pendingHighSurrogate = false;
+            if (Character.isLowSurrogate(c)) {
+                byteCount += 4;
+                return;
+            }
+            // The unpaired high surrogate is encoded as a one byte replacement.
+            byteCount++;
+        }
+        if (c < 0x80) {
+            byteCount++;
+        } else if (c < 0x800) {
+            byteCount += 2;
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = true;
+        } else if (Character.isLowSurrogate(c)) {
+            byteCount++;
+        } else {
+            byteCount += 3;
+        }
+    }
+
+    /**
+     * Appends the characters. Nothing is appended for null.
+     */
+    public HtmlOutput append(CharSequence text) throws IOException {
+        if (text != null) {
+            for (int i = 0, textLength = text.length(); i < textLength; i++) {
+                append(text.charAt(i));
+            }
+        }
+        return this;
+    }
+
+    public HtmlOutput append(int value) throws IOException {
+        return append((long)value);
+    }
+
+    public HtmlOutput append(long value) throws IOException {
+        if (value < 0) {
+            append('-');
+            if (value == Long.MIN_VALUE) {
+                return append("9223372036854775808");
+            }
+            value = -value;
+        }
+        long divisor = 1;
+        while (value/divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            append((char)('0' + value/divisor%10));
+            divisor /= 10;
+        }
+        return this;
+    }
+
+    /**
+     * Appends the value rounded to four decimal places, without trailing zeros.
+     */
+    public HtmlOutput append(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return append('0');
+        }
+        long scaled = Math.round(Math.abs(value)*DECIMAL_SCALE);
+        if (value < 0 && scaled != 0) {
+            append('-');
+        }
+        append(scaled/DECIMAL_SCALE);
+        long fraction = scaled%DECIMAL_SCALE;
+        if (fraction != 0) {
+            append('.');
+            long divisor = DECIMAL_SCALE/10;
+            for (int i = 0; i < DECIMAL_PLACES && fraction != 0; i++) {
+                append((char)('0' + fraction/divisor));
+                fraction %= divisor;
+                divisor /= 10;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Appends the color as a CSS rgba() value.
+     */
+    public HtmlOutput appendColor(Color color) throws IOException {
+        append("rgba(").append(color.getRed()).append(", ").append(color.getGreen()).append(", ").append(color.getBlue());
+        return append(", ").append((double)color.getAlpha()/255).append(')');
+    }
+
+    /**
+     * Appends everything kept by an in-memory output.
+     */
+    public HtmlOutput append(HtmlOutput output) throws IOException {
+        for (int i = 0; i < output.length; i++) {
+            append(output.buffer[i]);
+        }
+        return this;
+    }
+
+    /**
+     * Writes all buffered text to the channel or appendable. A high surrogate at the end is
+     * written to a channel as a replacement, since the rest of its pair can no longer follow.
+     */
+    public void flush() throws IOException {
+        if (channel != null) {
+            chars.limit(length).position(0);
+            encode(true);
+            length = 0;
+            if (pendingHighSurrogate) {
+                pendingHighSurrogate = false;
+                byteCount++;
+            }
+        } else if (appendable != null) {
+            appendable.append(chars, 0, length);
+            length = 0;
+        }
+    }
+
+    /**
+     * Makes room in a full buffer.
+     */
+    private void drain() throws IOException {
+        if (channel != null) {
+            chars.limit(length).position(0);
+            encode(false);
+            // A high surrogate at the end waits for the rest of its pair.
+            int remaining = chars.remaining();
+            System.arraycopy(buffer, chars.position(), buffer, 0, remaining);
+            length = remaining;
+        } else if (appendable != null) {
+            flush();
+        } else {
+            char[] grown = new char[buffer.length*2];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+
+    private void encode(boolean endOfInput) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            writeBytes();
+            if (result.isUnderflow()) {
+                break;
+            }
+        }
+        if (endOfInput) {
+            encoder.flush(bytes);
+            writeBytes();
+            encoder.reset();
+        }
+    }
+
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
@@ -0,0 +1,116 @@
+package drowsysaturn.sleepyhtmleditor.html;
+
+import java.awt.Color;
+
+import drowsysaturn.sleepyhtmleditor.editor.BackgroundStyle;
+import drowsysaturn.sleepyhtmleditor.editor.DocumentElement;
+import drowsysaturn.sleepyhtmleditor.editor.StandardPanel;
+import drowsysaturn.sleepyhtmleditor.editor.TextPanel;
+
+/**
+ * The properties of an element which end up in its shared CSS class, everything except geometry.
+ * Elements with equal keys get identical declarations, so HtmlExporter writes them once.
+ */
+public class StyleKey {
+    private final boolean text;
+    private final int fontSize;
+    private final String fontFamily;
+    private final Color foregroundColor;
+    private final boolean panel;
+    private final Color backgroundColor;
+    private final BackgroundStyle backgroundStyle;
+
+    /**
+     * Name of the background image file or null.
+     */
+    private final String imageName;
+
+    private final int hash;
+
+    public StyleKey(DocumentElement element) {
+        text = element instanceof TextPanel;
+        panel = element instanceof StandardPanel;
+        if (text) {
+            TextPanel textPanel = (TextPanel)element;
+            fontSize = textPanel.getFontSize();
+            fontFamily = textPanel.getFontFamily();
+            foregroundColor = textPanel.getForegroundColor();
+        } else {
+            fontSize = 0;
+            fontFamily = null;
+            foregroundColor = null;
+        }
+        if (panel) {
+            StandardPanel standardPanel = (StandardPanel)element;
+            backgroundColor = standardPanel.getBackgroundColor();
+            backgroundStyle = standardPanel.getBackgroundStyle();
+            imageName = backgroundStyle == BackgroundStyle.SOLID_COLOR || standardPanel.getImageFile() == null 
+                ? null : standardPanel.getImageFile().getName();
+        } else {
+            backgroundColor = null;
+            backgroundStyle = null;
+            imageName = null;
+        }
+        int hash = (text ? 1 : 0) + (panel ? 2 : 0);
+        hash = hash*31 + fontSize;
+        hash = hash*31 + (fontFamily == null ? 0 : fontFamily.hashCode());
+        hash = hash*31 + (foregroundColor == null ? 0 : foregroundColor.getRGB());
+        hash = hash*31 + (backgroundColor == null ? 0 : backgroundColor.getRGB());
+        hash = hash*31 + (backgroundStyle == null ? 0 : backgroundStyle.ordinal());
+        hash = hash*31 + (imageName == null ? 0 : imageName.hashCode());
+        this.hash = hash;
+    }
+
+    public boolean isText() {
+        return text;
+    }
+
+    public int getFontSize() {
+        return fontSize;
+    }
+
+    public String getFontFamily() {
+        return fontFamily;
+    }
+
+    public Color getForegroundColor() {
+        return foregroundColor;
+    }
+
+    public boolean isPanel() {
+        return panel;
+    }
+
+    public Color getBackgroundColor() {
+        return backgroundColor;
+    }
+
+    public BackgroundStyle getBackgroundStyle() {
+        return backgroundStyle;
+    }
+
+    public String getImageName() {
+        return imageName;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof StyleKey)) {
+            return false;
+        }
+        StyleKey key = (StyleKey)other;
+        return hash == key.hash && text == key.text && panel == key.panel && fontSize == key.fontSize
+            && equal(fontFamily, key.fontFamily) && equal(foregroundColor, key.foregroundColor)
+            && equal(backgroundColor, key.backgroundColor) && backgroundStyle == key.backgroundStyle
+            && equal(imageName, key.imageName);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
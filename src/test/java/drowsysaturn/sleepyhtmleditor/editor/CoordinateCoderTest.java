@@ -0,0 +1,142 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class CoordinateCoderTest {
+    /**
+     * Grammar of the coordinates as it was defined before the parser was written by hand.
+     */
+    private static final Pattern REFERENCE = Pattern.compile("\\s*(\\-?\\d*\\.?\\d*)\\%\\s*\\+\\s*(\\-?\\d+)px");
+
+    @Test
+    public void decodesCoordinates() throws CoordinateCodingException {
+        assertDecodes("50% + -200px", 0.5, -200);
+        assertDecodes("  12.5%+7px  ", 0.125, 7);
+        assertDecodes("-.5% +\t0px", -0.005, 0);
+        assertDecodes("5.% + 1px", 0.05, 1);
+        assertDecodes("007% + 0008px", 0.07, 8);
+    }
+
+    @Test
+    public void ignoresTextAroundCoordinate() throws CoordinateCodingException {
+        assertDecodes("left: 50% + 2px;", 0.5, 2);
+        assertDecodes("1.2.3% + 1px", 0.023, 1);
+        assertDecodes("--5% + 1px", -0.05, 1);
+        assertDecodes("50% + 2pxx", 0.5, 2);
+    }
+
+    @Test
+    public void decodesNumberEdgeCases() throws CoordinateCodingException {
+        assertDecodes("-0% + -0px", -0.0, 0);
+        assertDecodes("0.1% + " + Integer.MIN_VALUE + "px", 0.001, Integer.MIN_VALUE);
+        assertDecodes("0.1% + " + Integer.MAX_VALUE + "px", 0.001, Integer.MAX_VALUE);
+        assertDecodes("1234567890.123456789% + 0px", 1234567890.123456789/100, 0);
+        assertDecodes("0.00000000000000001% + 0px", 1e-17/100, 0);
+        assertDecodes("99999999999999999999% + 0px", 1e20/100, 0);
+    }
+
+    @Test
+    public void rejectsInvalidCoordinates() {
+        String[] invalid = {
+            "", "%+0px", ".% + 0px", "-% + 0px", "5 % + 0px", "5% 0px", "5% + px", "5% + 1 px", "5% + 1p",
+            "5% + 2147483648px", "5% + -2147483649px", "5% + 99999999999999999999px", "5%% + 1px"
+        };
+        for (String text : invalid) {
+            try {
+                CoordinateCoder.decode(text);
+                fail("Decoded " + text);
+            } catch (CoordinateCodingException ex) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void acceptsSameTextAsRegularExpression() {
+        char[] alphabet = {'0', '1', '9', '.', '-', '%', '+', ' ', 'p', 'x', 'a'};
+        Random random = new Random(11);
+        for (int n = 0; n < 200000; n++) {
+            char[] chars = new char[1 + random.nextInt(14)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+            String text = new String(chars);
+            ScreenCoordinateSingle expected = decodeWithReference(text), actual;
+            try {
+                actual = CoordinateCoder.decode(text);
+            } catch (CoordinateCodingException ex) {
+                actual = null;
+            }
+            if (expected == null) {
+                assertNull(text, actual);
+            } else {
+                assertEquals(text, expected.getPercent(), actual == null ? Double.NaN : actual.getPercent(), 0);
+                assertEquals(text, expected.getPixels(), actual.getPixels());
+            }
+        }
+    }
+
+    @Test
+    public void encodesRoundedPercentages() {
+        assertEquals("50% + -200px", CoordinateCoder.encode(0.5, -200));
+        assertEquals("10% + 0px", CoordinateCoder.encode(0.1 + 1e-17, 0));
+        assertEquals("33.333333% + 1px", CoordinateCoder.encode(1.0/3, 1));
+        assertEquals("0% + 0px", CoordinateCoder.encode(-0.0, 0));
+        assertEquals("0% + 0px", CoordinateCoder.encode(Double.NaN, 0));
+        assertEquals("-0.000001% + " + Integer.MIN_VALUE + "px", CoordinateCoder.encode(-1e-8, Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void decodesWhatItEncodes() throws CoordinateCodingException {
+        Random random = new Random(5);
+        for (int n = 0; n < 10000; n++) {
+            double percent = Math.round((random.nextDouble() - 0.5)*4e8)/1e8;
+            int pixels = random.nextInt();
+            ScreenCoordinateSingle decoded = CoordinateCoder.decode(CoordinateCoder.encode(percent, pixels));
+            assertEquals(percent, decoded.getPercent(), 1e-12);
+            assertEquals(pixels, decoded.getPixels());
+            assertEquals(CoordinateCoder.encode(percent, pixels), CoordinateCoder.encode(decoded));
+        }
+    }
+
+    @Test
+    public void decodesAllIntoSlots() throws CoordinateCodingException {
+        double[] percents = new double[3];
+        int[] pixels = new int[3];
+        CoordinateCoder.decodeAll(new CharSequence[] {"1% + 1px", "2% + 2px", new StringBuilder("3% + 3px")}, percents, pixels);
+        assertEquals(0.03, percents[2], 0);
+        assertEquals(2, pixels[1]);
+    }
+
+    private static void assertDecodes(String text, double percent, int pixels) throws CoordinateCodingException {
+        ScreenCoordinateSingle decoded = CoordinateCoder.decode(text);
+        assertEquals(text, percent, decoded.getPercent(), 0);
+        assertEquals(text, pixels, decoded.getPixels());
+        ScreenCoordinateSingle reference = decodeWithReference(text);
+        assertEquals(text, reference.getPercent(), decoded.getPercent(), 0);
+    }
+
+    /**
+     * Decodes the text the way the coordinate coder did with a regular expression.
+     * @return The coordinate or null if the text was rejected.
+     */
+    private static ScreenCoordinateSingle decodeWithReference(String text) {
+        Matcher matcher = REFERENCE.matcher(text);
+        if (!matcher.find()) {
+            return null;
+        }
+        try {
+            return new ScreenCoordinateSingle(Double.parseDouble(matcher.group(1))/100, Integer.parseInt(matcher.group(2)));
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class DocumentLenseTest {
+    private static final int WIDTH = 400, HEIGHT = 300;
+
+    private static final Viewport VIEW = new Viewport(2, 100, 50);
+
+    @Test
+    public void repaintsCancelledFrameUnderViewport() throws InterruptedException {
+        assertRepaintsCancelledFrame(false);
+    }
+
+    @Test
+    public void repaintsCancelledFrameWithTiles() throws InterruptedException {
+        assertRepaintsCancelledFrame(true);
+    }
+
+    @Test
+    public void dragSnapshotCutShortByEditIsNull() throws InterruptedException {
+        StandardPanel root = new StandardPanel(new ScreenCoordinate(0, 0, 0, 0), new ScreenCoordinate(0, 1, 0, 1));
+        DocumentLense lense = new DocumentLense(root);
+        CancellingElement cancelling = new CancellingElement(lense);
+        StandardPanel panel = new StandardPanel(new ScreenCoordinate(150, 0, 100, 0), new ScreenCoordinate(50, 0, 50, 0));
+        root.addChild(cancelling);
+        root.addChild(panel);
+
+        cancelling.armed.set(true);
+        assertNull(lense.snapshotForDrag(panel, WIDTH, HEIGHT));
+        cancelling.edit.join();
+        assertNotNull(lense.snapshotForDrag(panel, WIDTH, HEIGHT));
+    }
+
+    /**
+     * Cancels the frame which paints a changed panel, by starting an edit from an element painted
+     * before it, and checks that the next frame matches a headless render of the zoomed document.
+     */
+    private static void assertRepaintsCancelledFrame(boolean tiles) throws InterruptedException {
+        StandardPanel root = new StandardPanel(new ScreenCoordinate(0, 0, 0, 0), new ScreenCoordinate(0, 1, 0, 1));
+        root.setBackgroundColor(Color.WHITE);
+        DocumentLense lense = new DocumentLense(root);
+        CancellingElement cancelling = new CancellingElement(lense);
+        StandardPanel panel = new StandardPanel(new ScreenCoordinate(150, 0, 100, 0), new ScreenCoordinate(50, 0, 50, 0));
+        panel.setBackgroundColor(Color.RED);
+        root.addChild(cancelling);
+        root.addChild(panel);
+        lense.setViewport(VIEW);
+        if (tiles) {
+            lense.setTileCache(new TileCache(TileCache.DEFAULT_MAX_BYTES));
+        }
+        lense.render(WIDTH, HEIGHT);
+
+        lense.edit(() -> panel.setBackgroundColor(Color.BLUE));
+        cancelling.armed.set(true);
+        lense.render(WIDTH, HEIGHT);
+        cancelling.edit.join();
+        assertFalse(cancelling.armed.get());
+
+        assertFrameMatchesHeadless(lense, lense.render(WIDTH, HEIGHT));
+    }
+
+    private static void assertFrameMatchesHeadless(DocumentLense lense, FrameBuffer frame) {
+        BufferedImage expected = new HeadlessRenderer().render(lense, WIDTH, HEIGHT, VIEW.getZoom());
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int rgb = expected.getRGB(x + VIEW.getScrollX(), y + VIEW.getScrollY());
+                assertEquals("Pixel " + x + ", " + y, rgb, frame.getImage().getRGB(x, y));
+            }
+        }
+    }
+
+    /**
+     * Element painted with render which, once armed, starts an edit on another thread while the
+     * frame is painted, and waits until the edit has cut the frame short.
+     */
+    private static class CancellingElement extends DocumentElement {
+        private final DocumentLense lense;
+
+        private final AtomicBoolean armed = new AtomicBoolean();
+
+        private Thread edit = new Thread();
+
+        private CancellingElement(DocumentLense lense) {
+            super(new ScreenCoordinate(0, 0, 0, 0), new ScreenCoordinate(0, 1, 0, 1));
+            this.lense = lense;
+        }
+
+        @Override
+        public void render(Graphics graphics, int x, int y, int width, int height) {
+            if (armed.compareAndSet(true, false)) {
+                long generation = lense.getEditGeneration();
+                edit = new Thread(() -> lense.edit(() -> {}));
+                edit.start();
+                while (lense.getEditGeneration() == generation) {
+                    Thread.yield();
+                }
+            }
+            renderChildren(graphics, x, y, width, height);
+        }
+
+        @Override
+        public String getElementType() {
+            return CancellingElement.class.getName();
+        }
+    }
+}
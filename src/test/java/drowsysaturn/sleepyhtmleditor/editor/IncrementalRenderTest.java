@@ -0,0 +1,148 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Makes random edits to a document and checks after each one that the children of every element
+ * match a plain list model, and that the frame repainted from the damage and the updated display
+ * list matches the document rendered from scratch by HeadlessRenderer.
+ */
+public class IncrementalRenderTest {
+    private static final int WIDTH = 320, HEIGHT = 240;
+
+    private static final int STEPS = 1000;
+
+    @Test
+    public void incrementalFramesMatchFullRenders() {
+        Random random = new Random(12);
+        StandardPanel root = new StandardPanel(new ScreenCoordinate(0, 0, 0, 0), new ScreenCoordinate(0, 1, 0, 1));
+        root.setBackgroundColor(Color.WHITE);
+        DocumentLense lense = new DocumentLense(root);
+        Map<DocumentElement, List<DocumentElement>> model = new HashMap<DocumentElement, List<DocumentElement>>();
+        List<DocumentElement> elements = new ArrayList<DocumentElement>();
+        model.put(root, new ArrayList<DocumentElement>());
+        elements.add(root);
+        lense.render(WIDTH, HEIGHT);
+        for (int step = 0; step < STEPS; step++) {
+            lense.edit(() -> randomEdit(random, root, elements, model));
+            assertChildrenMatch(root, model);
+            assertEquals(elements.size(), lense.getElementCount());
+            assertFrameMatchesHeadless(lense, lense.render(WIDTH, HEIGHT), step);
+        }
+    }
+
+    private static void randomEdit(Random random, DocumentElement root, List<DocumentElement> elements,
+            Map<DocumentElement, List<DocumentElement>> model) {
+        DocumentElement element = elements.get(random.nextInt(elements.size()));
+        int action = elements.size() < 8 ? 0 : random.nextInt(7);
+        if (action == 0) {
+            StandardPanel child = randomPanel(random);
+            element.addChild(child);
+            model.get(element).add(child);
+            model.put(child, new ArrayList<DocumentElement>());
+            elements.add(child);
+        } else if (element == root) {
+            return;
+        } else if (action == 1) {
+            List<DocumentElement> removed = new ArrayList<DocumentElement>();
+            collect(element, model, removed);
+            model.get(element.getParent()).remove(element);
+            root.removeChild(element);
+            for (DocumentElement descendant : removed) {
+                model.remove(descendant);
+            }
+            elements.removeAll(removed);
+        } else if (action == 2) {
+            List<DocumentElement> siblings = model.get(element.getParent());
+            element.bringToFront();
+            siblings.remove(element);
+            siblings.add(element);
+        } else if (action == 3) {
+            List<DocumentElement> siblings = model.get(element.getParent());
+            element.sendToBack();
+            siblings.remove(element);
+            siblings.add(0, element);
+        } else if (action == 4) {
+            DocumentElement parent = elements.get(random.nextInt(elements.size()));
+            if (element.isAncestorOf(parent) || parent == element.getParent()) {
+                return;
+            }
+            model.get(element.getParent()).remove(element);
+            parent.addChild(element);
+            model.get(parent).add(element);
+        } else if (action == 5) {
+            element.setPosition(new ScreenCoordinate(random.nextInt(WIDTH) - 40, 0, random.nextInt(HEIGHT) - 40, 0));
+        } else {
+            ((StandardPanel)element).setBackgroundColor(randomColor(random));
+        }
+    }
+
+    private static StandardPanel randomPanel(Random random) {
+        ScreenCoordinate position = new ScreenCoordinate(random.nextInt(WIDTH) - 40, 0, random.nextInt(HEIGHT) - 40, 0);
+        ScreenCoordinate size = new ScreenCoordinate(10 + random.nextInt(120), 0, 10 + random.nextInt(90), 0);
+        StandardPanel panel = random.nextInt(4) == 0 ? new TextPanel(position, size, "Some words to wrap") : new StandardPanel(position, size);
+        panel.setBackgroundColor(randomColor(random));
+        return panel;
+    }
+
+    private static Color randomColor(Random random) {
+        return new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256), random.nextBoolean() ? 255 : 160);
+    }
+
+    private static void collect(DocumentElement element, Map<DocumentElement, List<DocumentElement>> model, List<DocumentElement> into) {
+        into.add(element);
+        for (DocumentElement child : model.get(element)) {
+            collect(child, model, into);
+        }
+    }
+
+    private static void assertChildrenMatch(DocumentElement root, Map<DocumentElement, List<DocumentElement>> model) {
+        for (Map.Entry<DocumentElement, List<DocumentElement>> entry : model.entrySet()) {
+            DocumentElement element = entry.getKey();
+            List<DocumentElement> expected = entry.getValue();
+            ChildList children = element.getChildren();
+            assertEquals(expected.size(), children.size());
+            List<DocumentElement> actual = new ArrayList<DocumentElement>();
+            for (DocumentElement child : children) {
+                assertSame(element, child.getParent());
+                actual.add(child);
+            }
+            assertEquals(expected, actual);
+            List<DocumentElement> descending = new ArrayList<DocumentElement>();
+            for (Iterator<DocumentElement> i = children.descendingIterator(); i.hasNext();) {
+                descending.add(i.next());
+            }
+            Collections.reverse(descending);
+            assertEquals(expected, descending);
+            if (!expected.isEmpty()) {
+                assertSame(expected.get(0), children.getFirst());
+                assertSame(expected.get(expected.size() - 1), children.getLast());
+            }
+        }
+    }
+
+    private static void assertFrameMatchesHeadless(DocumentLense lense, FrameBuffer frame, int step) {
+        BufferedImage expected = new HeadlessRenderer().render(lense, WIDTH, HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (expected.getRGB(x, y) != frame.getImage().getRGB(x, y)) {
+                    fail("Step " + step + " differs at " + x + ", " + y);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LayerCacheTest {
+    private static final int WIDTH = 320, HEIGHT = 240;
+
+    /**
+     * Largest difference of a color channel allowed between a layered frame and a direct paint.
+     * Layers composite their translucent content into a transparent image first, which rounds
+     * differently than compositing it onto the frame.
+     */
+    private static final int TOLERANCE = 1;
+
+    @Test
+    public void layeredFramesMatchUncachedRendersWithinTolerance() {
+        Random random = new Random(17);
+        StandardPanel root = new StandardPanel(new ScreenCoordinate(0, 0, 0, 0), new ScreenCoordinate(0, 1, 0, 1));
+        root.setBackgroundColor(Color.WHITE);
+        DocumentLense lense = new DocumentLense(root);
+        LayerCache layers = new LayerCache(LayerCache.DEFAULT_MAX_BYTES);
+        lense.setLayerCache(layers);
+        List<StandardPanel> groups = new ArrayList<StandardPanel>();
+        for (int i = 0; i < 12; i++) {
+            StandardPanel group = panel(random, 60, 50);
+            for (int j = 0; j < 3; j++) {
+                group.addChild(j == 2 ? new TextPanel(position(random, 40, 30), new ScreenCoordinate(50, 0, 30, 0), "Layer " + i) : panel(random, 30, 25));
+            }
+            root.addChild(group);
+            groups.add(group);
+        }
+        lense.render(WIDTH, HEIGHT);
+        int maxDifference = 0;
+        for (int step = 0; step < 200; step++) {
+            StandardPanel group = groups.get(random.nextInt(groups.size()));
+            boolean toFront = random.nextInt(4) == 0;
+            lense.edit(() -> {
+                group.setPosition(position(random, WIDTH - 40, HEIGHT - 40));
+                if (toFront) {
+                    group.bringToFront();
+                }
+            });
+            FrameBuffer frame = lense.render(WIDTH, HEIGHT);
+            maxDifference = Math.max(maxDifference, maxDifference(new HeadlessRenderer().render(lense, WIDTH, HEIGHT), frame.getImage()));
+        }
+        assertTrue("Layers were not used", layers.getHits() > 0);
+        assertTrue("Channels differ by " + maxDifference, maxDifference <= TOLERANCE);
+    }
+
+    private static StandardPanel panel(Random random, int width, int height) {
+        StandardPanel panel = new StandardPanel(position(random, width, height), new ScreenCoordinate(width, 0, height, 0));
+        panel.setBackgroundColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256), random.nextBoolean() ? 255 : 130));
+        return panel;
+    }
+
+    private static ScreenCoordinate position(Random random, int maxX, int maxY) {
+        return new ScreenCoordinate(random.nextInt(maxX), 0, random.nextInt(maxY), 0);
+    }
+
+    private static int maxDifference(BufferedImage expected, BufferedImage actual) {
+        int max = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int a = expected.getRGB(x, y), b = actual.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    max = Math.max(max, Math.abs(((a >> shift) & 0xff) - ((b >> shift) & 0xff)));
+                }
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,47 @@
+package drowsysaturn.sleepyhtmleditor.editor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+public class TextWrapperTest {
+    private static final Font FONT = new Font(Font.SANS_SERIF, Font.PLAIN, 14);
+
+    @Test
+    public void drawnLinesFitWidthWithRepeatedWhitespace() {
+        FontMetrics metrics = metrics();
+        String text = "Some   words\t\twith  tabs and\t   repeated    spaces between\t them, wrapped  \t at  several widths";
+        TextWrapper wrapper = new TextWrapper();
+        for (int width = 40; width <= 400; width += 7) {
+            wrapper.wrap(text, FONT, metrics, width);
+            for (int line = 0; line < wrapper.getLineCount(); line++) {
+                char[] chars = wrapper.copyLine(line);
+                int drawnWidth = metrics.charsWidth(chars, 0, chars.length);
+                assertEquals(wrapper.getLineWidth(line), drawnWidth);
+                assertTrue(new String(chars) + " at width " + width, drawnWidth < width || new String(chars).indexOf(' ') == -1);
+            }
+        }
+    }
+
+    @Test
+    public void collapsesWhitespaceBetweenWords() {
+        TextWrapper wrapper = new TextWrapper();
+        wrapper.wrap("  one \t two   three  \nfour", FONT, metrics(), 10000);
+        assertEquals(2, wrapper.getLineCount());
+        assertEquals("one two three", new String(wrapper.copyLine(0)));
+        assertEquals("four", new String(wrapper.copyLine(1)));
+    }
+
+    private static FontMetrics metrics() {
+        Graphics2D graphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        FontMetrics metrics = graphics.getFontMetrics(FONT);
+        graphics.dispose();
+        return metrics;
+    }
+}
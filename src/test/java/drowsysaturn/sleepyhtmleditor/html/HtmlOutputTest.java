@@ -0,0 +1,92 @@
+package drowsysaturn.sleepyhtmleditor.html;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class HtmlOutputTest {
+    /**
+     * Size of the buffer of HtmlOutput, where a surrogate pair can be split.
+     */
+    private static final int BUFFER_SIZE = 64*1024;
+
+    private static final String NON_BMP = new String(Character.toChars(0x1F600));
+
+    @Test
+    public void keepsSurrogatePairSplitAtBufferBoundary() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < BUFFER_SIZE - 1; i++) {
+            text.append('a');
+        }
+        text.append(NON_BMP);
+        for (int i = 0; i < BUFFER_SIZE; i++) {
+            text.append(i % 3 == 0 ? '\u00e9' : 'b');
+        }
+        text.append(NON_BMP);
+        assertWrittenAsUtf8(text.toString());
+    }
+
+    @Test
+    public void countsBytesOfEveryEncodedLength() throws IOException {
+        assertWrittenAsUtf8("a\u00e9\u20ac" + NON_BMP + "<div>\u4e2d\u6587</div>");
+    }
+
+    @Test
+    public void countsUnpairedSurrogatesAsReplacements() throws IOException {
+        assertWrittenAsUtf8("a\ud83db\ude00c\ud83d");
+    }
+
+    @Test
+    public void countsBytesForAppendable() throws IOException {
+        String text = "x\u00e9" + NON_BMP;
+        StringBuilder copy = new StringBuilder();
+        HtmlOutput output = new HtmlOutput(copy);
+        output.append(text);
+        output.flush();
+        assertEquals(text, copy.toString());
+        assertEquals(text.getBytes(StandardCharsets.UTF_8).length, output.getByteCount());
+    }
+
+    @Test
+    public void appendsInMemoryOutput() throws IOException {
+        HtmlOutput body = new HtmlOutput();
+        for (int i = 0; i < BUFFER_SIZE; i++) {
+            body.append(i % 7 == 0 ? NON_BMP : "c");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        HtmlOutput output = new HtmlOutput(Channels.newChannel(bytes));
+        output.append(body);
+        output.flush();
+        assertEquals(body.getByteCount(), output.getByteCount());
+        assertEquals(bytes.size(), output.getByteCount());
+    }
+
+    @Test
+    public void formatsNumbers() throws IOException {
+        StringBuilder text = new StringBuilder();
+        HtmlOutput output = new HtmlOutput(text);
+        output.append(0).append(' ').append(-42).append(' ').append(Long.MIN_VALUE).append(' ');
+        output.append(1.5).append(' ').append(-0.00001).append(' ').append(2.00004).append(' ').append(Double.NaN);
+        output.flush();
+        assertEquals("0 -42 -9223372036854775808 1.5 0 2 0", text.toString());
+    }
+
+    /**
+     * Writes the text through a channel and checks the bytes and the byte count against the JDK encoder.
+     */
+    private static void assertWrittenAsUtf8(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        HtmlOutput output = new HtmlOutput(Channels.newChannel(bytes));
+        output.append(text);
+        output.flush();
+        byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected.length, bytes.size());
+        assertEquals(new String(expected, StandardCharsets.UTF_8), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(bytes.size(), output.getByteCount());
+    }
+}